@@ -1,8 +1,13 @@
 package ascii_art;
 
-import ascii_output.AsciiOutput;
+import ascii_output.AsciiGrid;
 import exceptions.EmptyCharSetException;
+import image.BrightnessGrid;
 import image.ImageProcessor;
+import image.LuminanceMode;
+import image_char_matching.CharConverter;
+import image_char_matching.CharMatcherSnapshot;
+import image_char_matching.MatchMethod;
 import image_char_matching.SubImgCharMatcher;
 import image.Image;
 
@@ -10,20 +15,186 @@ public class AsciiArtAlgorithm {
     private final Image sourceImage;
     private final int resolution;
     private final SubImgCharMatcher charMatcher;
+    private final ImageProcessor processor;
+    private MatchMethod matchMethod = MatchMethod.BRIGHTNESS;
+    private DitherMethod ditherMethod = DitherMethod.NONE;
+    private LuminanceMode luminanceMode = LuminanceMode.GAMMA_ENCODED;
+    private ContrastMethod contrastMethod = ContrastMethod.NONE;
+    private SubCellMode subCellMode = SubCellMode.NONE;
+    private boolean colored = false;
 
-    AsciiArtAlgorithm(Image sourceImage, int resolution, SubImgCharMatcher charMatcher) {
+    public AsciiArtAlgorithm(Image sourceImage, int resolution, SubImgCharMatcher charMatcher) {
         this.sourceImage = sourceImage;
         this.resolution = resolution;
         this.charMatcher = charMatcher;
+        this.processor = null;
+    }
+
+    /**
+     * Renders through a caller-owned processor instead of the shared
+     * {@link ImageProcessor#getInstance} one, so concurrent renders don't evict each other.
+     */
+    AsciiArtAlgorithm(ImageProcessor processor, SubImgCharMatcher charMatcher) {
+        this.sourceImage = null;
+        this.resolution = 0;
+        this.charMatcher = charMatcher;
+        this.processor = processor;
+    }
+
+    /**
+     * Sets how tiles are matched to chars, by brightness unless set otherwise.
+     */
+    public void setMatchMethod(MatchMethod matchMethod) {
+        this.matchMethod = matchMethod;
+    }
+
+    /**
+     * Sets how the quantization error of brightness matching is diffused, not at all unless set
+     * otherwise. Structural matching is never dithered.
+     */
+    public void setDitherMethod(DitherMethod ditherMethod) {
+        this.ditherMethod = ditherMethod;
+    }
+
+    /**
+     * Sets in which space tile luminance is averaged, gamma-encoded unless set otherwise. Ignored
+     * when rendering through a caller-owned processor, which has its own mode.
+     */
+    public void setLuminanceMode(LuminanceMode luminanceMode) {
+        this.luminanceMode = luminanceMode;
+    }
+
+    /**
+     * Sets how tile brightnesses are spread over the charset before matching, kept as they are
+     * unless set otherwise. Structural matching is never adjusted.
+     */
+    public void setContrastMethod(ContrastMethod contrastMethod) {
+        this.contrastMethod = contrastMethod;
+    }
+
+    /**
+     * Sets whether tiles are drawn as sub-cell patterns instead of matched to the charset, not
+     * unless set otherwise. Sub-cell patterns are contrast adjusted but neither dithered nor
+     * matched structurally.
+     */
+    public void setSubCellMode(SubCellMode subCellMode) {
+        this.subCellMode = subCellMode;
+    }
+
+    /**
+     * Sets whether rendered grids carry the mean color of every tile, not unless set otherwise.
+     * Previews are never colored.
+     */
+    public void setColored(boolean colored) {
+        this.colored = colored;
     }
 
     public char[][] run() throws EmptyCharSetException {
-        ImageProcessor processor = ImageProcessor.getInstance(sourceImage,resolution);
-        double[][] brightnesses = processor.getMeanGrayGrades();
-        char[][] asciiArt = new char[brightnesses.length][brightnesses[0].length];
-        for (int i = 0; i < brightnesses.length; i++) {
-            for (int j = 0; j < brightnesses[0].length; j++) {
-                asciiArt[i][j] = charMatcher.getCharByImageBrightness(brightnesses[i][j]);
+        return render().toCharArrays();
+    }
+
+    /**
+     * Renders the image into a new flat grid.
+     * @return The rendered chars.
+     * @throws EmptyCharSetException If the character set is too small.
+     */
+    public AsciiGrid render() throws EmptyCharSetException {
+        return render(new RenderContext());
+    }
+
+    /**
+     * Renders the image into the context's buffers. Once the processor has computed its tiles and
+     * the buffers have grown to this resolution, the render allocates nothing. Every tile is
+     * matched against one snapshot of the charset, taken when the render starts.
+     * @param context The buffers to render into.
+     * @return The rendered chars, owned by the context and overwritten by its next render.
+     * @throws EmptyCharSetException If the character set is too small.
+     */
+    public AsciiGrid render(RenderContext context) throws EmptyCharSetException {
+        ImageProcessor processor = getProcessor();
+        boolean brightness = subCellMode == SubCellMode.NONE && matchMethod != MatchMethod.STRUCTURE;
+        // requested first when matching by brightness, so the gray grades are computed in the same
+        // pass as the colors, and last otherwise, so the grid reuses the rows of a preview
+        int[] colors = colored && brightness ? processor.getMeanColors() : null;
+        AsciiGrid asciiArt;
+        if (subCellMode != SubCellMode.NONE) {
+            asciiArt = renderSubCells(processor, context);
+        } else if (matchMethod == MatchMethod.STRUCTURE) {
+            asciiArt = renderStructural(processor, this.charMatcher.getSnapshot(), context);
+        } else {
+            asciiArt = renderBrightness(processor.getMeanGrayGradeGrid(), this.charMatcher.getSnapshot(),
+                    context);
+        }
+        if (colored) {
+            asciiArt.setColors(colors != null ? colors : processor.getMeanColors());
+        }
+        return asciiArt;
+    }
+
+    /**
+     * Renders a coarse preview of the image into the context's buffers, see
+     * {@link ImageProcessor#getPreviewGrayGradeGrid()}. The rows it reads are reused by the
+     * following {@link #render(RenderContext)}, so the preview adds little to the total work.
+     * Previews are always matched by brightness, since tile masks need every pixel row.
+     * @param context The buffers to render into.
+     * @return The rendered chars, owned by the context and overwritten by its next render.
+     * @throws EmptyCharSetException If the character set is too small.
+     */
+    public AsciiGrid renderPreview(RenderContext context) throws EmptyCharSetException {
+        return renderBrightness(getProcessor().getPreviewGrayGradeGrid(), this.charMatcher.getSnapshot(),
+                context);
+    }
+
+    private ImageProcessor getProcessor() {
+        return processor != null ? processor :
+                ImageProcessor.getInstance(sourceImage, resolution, luminanceMode);
+    }
+
+    private AsciiGrid renderSubCells(ImageProcessor processor, RenderContext context) {
+        BrightnessGrid subCells = processor.getSubCellGrayGradeGrid(SubCellRenderer.getColumns(subCellMode),
+                SubCellRenderer.getRows(subCellMode));
+        if (contrastMethod != ContrastMethod.NONE) {
+            BrightnessGrid adjusted = context.getContrastBuffer(subCells);
+            context.getContrastAdjuster().run(contrastMethod, subCells, adjusted);
+            subCells = adjusted;
+        }
+        AsciiGrid asciiArt = context.getAsciiGrid(subCells.getWidth() / SubCellRenderer.getColumns(subCellMode),
+                subCells.getHeight() / SubCellRenderer.getRows(subCellMode), false);
+        SubCellRenderer.render(subCellMode, subCells, asciiArt);
+        return asciiArt;
+    }
+
+    private AsciiGrid renderBrightness(BrightnessGrid brightnesses, CharMatcherSnapshot charMatcher,
+                                       RenderContext context) throws EmptyCharSetException {
+        if (contrastMethod != ContrastMethod.NONE) {
+            BrightnessGrid adjusted = context.getContrastBuffer(brightnesses);
+            context.getContrastAdjuster().run(contrastMethod, brightnesses, adjusted);
+            brightnesses = adjusted;
+        }
+        AsciiGrid asciiArt = context.getAsciiGrid(brightnesses.getWidth(), brightnesses.getHeight(),
+                charMatcher.isAscii());
+        if (ditherMethod != DitherMethod.NONE) {
+            // the shared grid must not be modified, so dithering diffuses its error into a copy
+            context.getDitherer(ditherMethod).run(context.getErrorBuffer(brightnesses), asciiArt,
+                    charMatcher);
+            return asciiArt;
+        }
+        for (int i = 0; i < brightnesses.getHeight(); i++) {
+            for (int j = 0; j < brightnesses.getWidth(); j++) {
+                asciiArt.set(i, j, charMatcher.getCharByImageBrightness(brightnesses.get(i, j)));
+            }
+        }
+        return asciiArt;
+    }
+
+    private AsciiGrid renderStructural(ImageProcessor processor, CharMatcherSnapshot charMatcher,
+                                       RenderContext context) throws EmptyCharSetException {
+        long[][] masks = processor.getTileMasks(CharConverter.DEFAULT_PIXEL_RESOLUTION);
+        int columns = masks[0].length / CharConverter.MASK_WORDS;
+        AsciiGrid asciiArt = context.getAsciiGrid(columns, masks.length, charMatcher.isAscii());
+        for (int i = 0; i < masks.length; i++) {
+            for (int j = 0; j < columns; j++) {
+                asciiArt.set(i, j, charMatcher.getCharByTileMask(masks[i], j * CharConverter.MASK_WORDS));
             }
         }
         return asciiArt;
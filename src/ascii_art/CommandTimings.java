@@ -0,0 +1,50 @@
+package ascii_art;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates how often each shell command ran and how long it took, for the timing report
+ * printed at the end of a script. Commands are reported in the order they first ran.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class CommandTimings {
+
+	private static final double NANOS_PER_MILLI = 1e6;
+	private static final String COMMAND_FORMAT = "%-10s count %6d  total_ms %10.3f  mean_ms %8.3f%n";
+	private static final String TOTAL_FORMAT = "%-10s count %6d  total_ms %10.3f%n";
+	private static final String TOTAL_LABEL = "total";
+
+	// {count, total nanos} of every command name
+	private final Map<String, long[]> timings = new LinkedHashMap<>();
+	private long count;
+	private long totalNanos;
+
+	/**
+	 * Records a single run of a command.
+	 * @param command The command name, i.e. the first word of the line.
+	 * @param nanos How long the command took in nanoseconds.
+	 */
+	void record(String command, long nanos) {
+		long[] timing = timings.computeIfAbsent(command, key -> new long[2]);
+		timing[0]++;
+		timing[1] += nanos;
+		count++;
+		totalNanos += nanos;
+	}
+
+	/**
+	 * Returns a plain-text report with one line per command and a final total line.
+	 */
+	String report() {
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, long[]> entry : timings.entrySet()) {
+			long[] timing = entry.getValue();
+			builder.append(String.format(COMMAND_FORMAT, entry.getKey(), timing[0],
+					timing[1] / NANOS_PER_MILLI, timing[1] / NANOS_PER_MILLI / timing[0]));
+		}
+		builder.append(String.format(TOTAL_FORMAT, TOTAL_LABEL, count, totalNanos / NANOS_PER_MILLI));
+		return builder.toString();
+	}
+}
@@ -0,0 +1,111 @@
+package ascii_art;
+
+import image.BrightnessGrid;
+
+import java.util.Arrays;
+
+/**
+ * Remaps a brightness grid to use the whole range between 0 and 1, so low-contrast images are
+ * matched against the whole charset instead of a handful of chars.
+ * <p>
+ * The grid is read twice: a counting pass builds a histogram of the brightnesses quantized to
+ * {@value #BINS} bins, and a second pass remaps every tile through the clip points or the
+ * cumulative distribution derived from it. Nothing is sorted, and the histogram is reused
+ * between runs.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class ContrastAdjuster {
+
+	private static final int BINS = 1024;
+	// Fraction of tiles clipped to black and to white when stretching, so a few outliers
+	// don't keep the rest of the image from being stretched
+	private static final double CLIP_FRACTION = 0.01;
+
+	private final int[] histogram = new int[BINS];
+
+	/**
+	 * Remaps the source brightnesses into the destination grid.
+	 * @param method The remapping, must not be {@link ContrastMethod#NONE}.
+	 * @param source The brightnesses to remap, left unmodified.
+	 * @param dest Reshaped to the source's dimensions and filled with the remapped brightnesses.
+	 */
+	void run(ContrastMethod method, BrightnessGrid source, BrightnessGrid dest) {
+		int tiles = source.getWidth() * source.getHeight();
+		dest.reshape(source.getWidth(), source.getHeight());
+		float[] values = source.getValues();
+		float[] remapped = dest.getValues();
+
+		Arrays.fill(histogram, 0);
+		for (int i = 0; i < tiles; i++) {
+			histogram[binOf(values[i])]++;
+		}
+
+		if (method == ContrastMethod.EQUALIZE) {
+			equalize(values, remapped, tiles);
+		} else {
+			stretch(values, remapped, tiles);
+		}
+	}
+
+	/**
+	 * Maps every brightness linearly from the clip points to 0 and 1.
+	 */
+	private void stretch(float[] values, float[] remapped, int tiles) {
+		long lowRank = (long) Math.ceil(tiles * CLIP_FRACTION);
+		long highRank = (long) Math.ceil(tiles * (1 - CLIP_FRACTION));
+		int lowBin = 0;
+		int highBin = BINS - 1;
+		long seen = 0;
+		for (int bin = 0; bin < BINS; bin++) {
+			if (seen < lowRank && seen + histogram[bin] >= lowRank) {
+				lowBin = bin;
+			}
+			seen += histogram[bin];
+			if (seen >= highRank) {
+				highBin = bin;
+				break;
+			}
+		}
+
+		double low = (double) lowBin / BINS;
+		double high = (double) (highBin + 1) / BINS;
+		if (high - low >= 1) {
+			System.arraycopy(values, 0, remapped, 0, tiles);
+			return;
+		}
+		double scale = 1 / (high - low);
+		for (int i = 0; i < tiles; i++) {
+			remapped[i] = (float) Math.min(1, Math.max(0, (values[i] - low) * scale));
+		}
+	}
+
+	/**
+	 * Maps every brightness to the fraction of tiles below it, interpolating within its bin.
+	 */
+	private void equalize(float[] values, float[] remapped, int tiles) {
+		// turn the histogram into the number of tiles in the bins below every bin
+		int below = 0;
+		for (int bin = 0; bin < BINS; bin++) {
+			int count = histogram[bin];
+			histogram[bin] = below;
+			below += count;
+		}
+
+		for (int i = 0; i < tiles; i++) {
+			double position = clamp(values[i]) * BINS;
+			int bin = Math.min((int) position, BINS - 1);
+			int next = bin + 1 < BINS ? histogram[bin + 1] : tiles;
+			double fraction = position - bin;
+			remapped[i] = (float) ((histogram[bin] + fraction * (next - histogram[bin])) / tiles);
+		}
+	}
+
+	private static int binOf(float value) {
+		return Math.min((int) (clamp(value) * BINS), BINS - 1);
+	}
+
+	private static double clamp(float value) {
+		return Math.min(1, Math.max(0, value));
+	}
+}
@@ -0,0 +1,19 @@
+package ascii_art;
+
+
+/**
+ * This enum determines how the tile brightnesses are spread over the charset before matching.
+ * NONE keeps them, STRETCH and EQUALIZE remap them to use the whole range between 0 and 1.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public enum ContrastMethod {
+	/** Tiles keep their mean gray grade. */
+	NONE,
+
+	/** Linearly stretches the brightnesses between the 1st and 99th percentile to 0 and 1. */
+	STRETCH,
+
+	/** Maps every brightness to the fraction of tiles darker than it, flattening the histogram. */
+	EQUALIZE
+}
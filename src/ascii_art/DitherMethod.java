@@ -0,0 +1,19 @@
+package ascii_art;
+
+
+/**
+ * This enum determines how the quantization error of matching a tile to a character is handled.
+ * NONE discards it, FLOYD_STEINBERG and ATKINSON diffuse it into the neighboring tiles.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public enum DitherMethod {
+	/** Every tile is matched independently. */
+	NONE,
+
+	/** Diffuses the whole error to the right and lower neighbors with 7/16, 3/16, 5/16 and 1/16. */
+	FLOYD_STEINBERG,
+
+	/** Diffuses 6/8 of the error over six neighbors, keeping more contrast in flat regions. */
+	ATKINSON
+}
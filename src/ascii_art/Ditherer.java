@@ -0,0 +1,153 @@
+package ascii_art;
+
+import ascii_output.AsciiGrid;
+import exceptions.EmptyCharSetException;
+import image.BrightnessGrid;
+import image_char_matching.CharMatcherSnapshot;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Matches a brightness grid to characters with error diffusion: the difference between a tile's
+ * brightness and the normalized brightness of its character is pushed into the tiles to its right
+ * and below, so a small charset reproduces gradients instead of flat bands.
+ * <p>
+ * Error diffusion is sequential in reading order, but a tile only depends on tiles a bounded
+ * number of columns ahead in the rows above it. Large grids are therefore processed as a diagonal
+ * wavefront: each worker claims the next unclaimed row and follows the row above it at a fixed
+ * column lag. Every tile receives its error contributions in the same order as in a sequential
+ * pass, so the result is identical to the sequential one.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class Ditherer {
+
+	// Kernels as {row offset, column offset, weight}, applied with weight / divisor
+	private static final int[][] FLOYD_STEINBERG_KERNEL = {{0, 1, 7}, {1, -1, 3}, {1, 0, 5}, {1, 1, 1}};
+	private static final double FLOYD_STEINBERG_DIVISOR = 16;
+	private static final int[][] ATKINSON_KERNEL =
+			{{0, 1, 1}, {0, 2, 1}, {1, -1, 1}, {1, 0, 1}, {1, 1, 1}, {2, 0, 1}};
+	private static final double ATKINSON_DIVISOR = 8;
+
+	// How many columns a row must trail the row above it. The row above reaches back one column
+	// into this row, and this row writes up to (kernel reach) columns ahead of itself, so both
+	// rows may only touch the same tile once the row above has moved past it.
+	private static final int FLOYD_STEINBERG_LAG = 3;
+	private static final int ATKINSON_LAG = 4;
+
+	// Grids smaller than this many tiles are not worth handing to other threads
+	private static final int MIN_PARALLEL_TILES = 128 * 128;
+	// Rows publish their progress every this many columns, to keep cache line traffic low
+	private static final int PROGRESS_STRIDE = 16;
+	// Busy-wait iterations before yielding the core to the worker being waited on
+	private static final int SPINS_BEFORE_YIELD = 64;
+
+	private final int[][] kernel;
+	private final double divisor;
+	private final int lag;
+
+	/**
+	 * Constructs a ditherer for the given method.
+	 * @param method The error diffusion method, must not be {@link DitherMethod#NONE}.
+	 */
+	Ditherer(DitherMethod method) {
+		if (method == DitherMethod.ATKINSON) {
+			kernel = ATKINSON_KERNEL;
+			divisor = ATKINSON_DIVISOR;
+			lag = ATKINSON_LAG;
+		} else {
+			kernel = FLOYD_STEINBERG_KERNEL;
+			divisor = FLOYD_STEINBERG_DIVISOR;
+			lag = FLOYD_STEINBERG_LAG;
+		}
+	}
+
+	/**
+	 * Matches every tile to a character, diffusing the quantization error.
+	 * @param brightnesses The tile brightness grid. It is used as the error buffer and is
+	 *                     overwritten.
+	 * @param asciiArt The grid receiving the matched characters, of the same dimensions.
+	 * @param charMatcher The snapshot every tile is matched against.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	void run(BrightnessGrid brightnesses, AsciiGrid asciiArt, CharMatcherSnapshot charMatcher)
+			throws EmptyCharSetException {
+		int height = brightnesses.getHeight();
+		int width = brightnesses.getWidth();
+
+		// fail here rather than in a worker, which would leave the rows below it waiting
+		charMatcher.getMatchedBrightness(0);
+
+		int workers = Math.min(height, Runtime.getRuntime().availableProcessors());
+		if (workers <= 1 || (long) height * width < MIN_PARALLEL_TILES) {
+			for (int row = 0; row < height; row++) {
+				ditherRow(brightnesses, asciiArt, charMatcher, row, null, null);
+			}
+			return;
+		}
+
+		AtomicIntegerArray progress = new AtomicIntegerArray(height);
+		AtomicInteger nextRow = new AtomicInteger();
+		AtomicBoolean aborted = new AtomicBoolean();
+		// rows are claimed in order, so the lowest unfinished row never waits and
+		// the wavefront cannot deadlock however many workers actually run
+		IntStream.range(0, workers).parallel().forEach(worker -> {
+			try {
+				for (int row = nextRow.getAndIncrement(); row < height; row = nextRow.getAndIncrement()) {
+					ditherRow(brightnesses, asciiArt, charMatcher, row, progress, aborted);
+				}
+			} catch (RuntimeException e) {
+				aborted.set(true);
+				throw e;
+			}
+		});
+	}
+
+	/**
+	 * Matches one row of tiles, diffusing their error.
+	 * @param progress The number of finished columns of every row, or null when running sequentially.
+	 * @param aborted Set when another worker failed, or null when running sequentially.
+	 */
+	private void ditherRow(BrightnessGrid brightnesses, AsciiGrid asciiArt, CharMatcherSnapshot charMatcher,
+						   int row, AtomicIntegerArray progress, AtomicBoolean aborted) {
+		int height = brightnesses.getHeight();
+		int width = brightnesses.getWidth();
+		float[] values = brightnesses.getValues();
+		int rowAboveDone = row == 0 || progress == null ? width : 0;
+
+		for (int col = 0; col < width; col++) {
+			int needed = Math.min(col + lag, width);
+			for (int spins = 0; rowAboveDone < needed; spins++) {
+				if (aborted.get()) {
+					return;
+				}
+				if (spins < SPINS_BEFORE_YIELD) {
+					Thread.onSpinWait();
+				} else {
+					Thread.yield();
+				}
+				rowAboveDone = progress.get(row - 1);
+			}
+
+			double brightness = values[row * width + col];
+			double matched = charMatcher.getMatchedBrightness(brightness);
+			asciiArt.set(row, col, charMatcher.getCharByImageBrightness(matched));
+
+			double error = (brightness - matched) / divisor;
+			for (int[] weight : kernel) {
+				int targetRow = row + weight[0];
+				int targetCol = col + weight[1];
+				if (targetRow < height && targetCol >= 0 && targetCol < width) {
+					values[targetRow * width + targetCol] += (float) (error * weight[2]);
+				}
+			}
+
+			if (progress != null && ((col + 1) % PROGRESS_STRIDE == 0 || col + 1 == width)) {
+				progress.set(row, col + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,359 @@
+package ascii_art;
+
+import exceptions.ImageLoadException;
+import image.Image;
+import image.ImageProcessor;
+import image.LuminanceMode;
+import image.LuminanceSums;
+import image.Viewport;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * The decoded images of a shell session and the processors computed for them, so switching back
+ * to a recently used image skips decoding and brightness computation.
+ * <p>
+ * The cache is bounded by the bytes it retains: the decoded pixels of every image plus the grids
+ * its processors have computed. When a load or a render pushes it over the budget, the least
+ * recently used images are evicted, except the one in use. Optionally, loading an image decodes
+ * the next image file of its directory in the background, so stepping through a directory finds
+ * each image already decoded.
+ * <p>
+ * Images of more than {@value #OFF_HEAP_PIXELS} pixels are decoded into storage outside the heap,
+ * so large images neither count against the heap nor slow down garbage collection, and evicted
+ * images are closed. Raw pixel files are mapped rather than decoded, so their size is bounded by
+ * the address space alone.
+ * <p>
+ * Processors of a viewport smaller than the image share the image's {@link LuminanceSums}, built
+ * by the first of them, so moving or resizing the viewport costs time proportional to the number
+ * of tiles rather than to the pixels it covers. They are kept apart from the processors of the
+ * whole image, in a slot of their own, so panning never evicts the whole image's grids.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class ImageCache {
+
+	private static final int BYTES_PER_PIXEL = Integer.BYTES;
+	private static final long OFF_HEAP_PIXELS = 16L * 1024 * 1024;
+	// Processors kept per image, one per resolution and luminance mode used recently
+	private static final int PROCESSORS_PER_IMAGE = 8;
+	// Processors of viewports kept per image, apart from the above; every pan makes a new one
+	private static final int VIEWPORT_PROCESSORS_PER_IMAGE = 2;
+	// The share of the budget a summed-area table may take
+	private static final int SUMS_BUDGET_DIVISOR = 4;
+	private static final String CACHE_KEY_SEPARATOR = "@";
+	private static final String INVALID_IMAGE_MSG = "Did not load image due to invalid path.";
+
+	private final long maxBytes;
+	// access ordered, so iteration starts at the least recently used image
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Future<Image>> prefetches = new HashMap<>();
+	private final Set<String> imageSuffixes = Arrays.stream(ImageIO.getReaderFileSuffixes())
+			.map(suffix -> suffix.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+	private ExecutorService prefetcher;
+	private String current;
+
+	/**
+	 * @param maxBytes The number of bytes the cached images and grids may retain.
+	 */
+	ImageCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Enables or disables decoding the next image of a loaded image's directory in the background.
+	 */
+	synchronized void setPrefetch(boolean prefetch) {
+		if (prefetch && prefetcher == null) {
+			prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "image-prefetch");
+				// never keeps the shell from exiting
+				thread.setDaemon(true);
+				return thread;
+			});
+		} else if (!prefetch && prefetcher != null) {
+			prefetcher.shutdownNow();
+			prefetcher = null;
+			prefetches.clear();
+		}
+	}
+
+	/**
+	 * Returns the image at the given path, decoding it unless it is cached, and makes it the image
+	 * in use. If prefetching is enabled, starts decoding the next image of its directory.
+	 * @param path The image path.
+	 * @return The decoded image.
+	 * @throws ImageLoadException If the image cannot be read or decoded.
+	 */
+	Image load(String path) throws ImageLoadException {
+		String key = getKey(path);
+		return load(key, () -> decode(key), true);
+	}
+
+	/**
+	 * Returns the raw image at the given path, mapping it unless it is cached, and makes it the
+	 * image in use. See {@link Image#mapRaw} for the format. Raw images are never prefetched.
+	 * @param path The raw file path.
+	 * @param width The number of pixels in a row.
+	 * @param height The number of rows.
+	 * @return The mapped image.
+	 * @throws ImageLoadException If the file cannot be mapped or is too short for the dimensions.
+	 */
+	Image loadRaw(String path, int width, int height) throws ImageLoadException {
+		String file = getKey(path);
+		String key = file + CACHE_KEY_SEPARATOR + width + CACHE_KEY_SEPARATOR + height;
+		return load(key, () -> mapRaw(file, width, height), false);
+	}
+
+	private Image load(String key, Decoder decoder, boolean prefetchable) throws ImageLoadException {
+		Image image;
+		Future<Image> prefetch;
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			image = entry == null ? null : entry.image;
+			if (entry != null) {
+				// in use from now on, so a prefetch finishing meanwhile cannot evict and close it
+				current = key;
+			}
+			prefetch = prefetches.remove(key);
+		}
+		if (image == null) {
+			image = prefetch != null ? awaitPrefetch(prefetch, key) : decoder.decode();
+		}
+
+		synchronized (this) {
+			if (!entries.containsKey(key)) {
+				entries.put(key, new Entry(image));
+			}
+			current = key;
+			trim();
+			if (prefetcher != null && prefetchable) {
+				prefetchNext(key);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Returns the cached processor of the image in use for the given resolution and luminance
+	 * mode, creating it if needed.
+	 */
+	synchronized ImageProcessor getProcessor(Image image, int resolution, LuminanceMode luminanceMode) {
+		return getProcessor(image, resolution, luminanceMode, Viewport.of(image));
+	}
+
+	/**
+	 * Returns the cached processor of the given viewport of the image in use, creating it if
+	 * needed. Unless the viewport covers the whole image, the processor computes its tiles from
+	 * the image's summed-area table, which is built on first use.
+	 */
+	synchronized ImageProcessor getProcessor(Image image, int resolution, LuminanceMode luminanceMode,
+											 Viewport viewport) {
+		Entry entry = current == null ? null : entries.get(current);
+		if (entry == null || entry.image != image) {
+			return new ImageProcessor(image, resolution, luminanceMode, viewport, null);
+		}
+		boolean whole = viewport.isWhole(image);
+		String key = resolution + CACHE_KEY_SEPARATOR + luminanceMode.name() +
+				(whole ? "" : CACHE_KEY_SEPARATOR + viewport.toString());
+		Map<String, ImageProcessor> processors = whole ? entry.processors : entry.viewportProcessors;
+		ImageProcessor processor = processors.get(key);
+		if (processor == null) {
+			LuminanceSums sums = whole ? null : entry.sums.computeIfAbsent(luminanceMode,
+					mode -> LuminanceSums.build(image, mode, maxBytes / SUMS_BUDGET_DIVISOR));
+			processor = new ImageProcessor(image, resolution, luminanceMode, viewport, sums);
+			processors.put(key, processor);
+		}
+		return processor;
+	}
+
+	/**
+	 * Evicts least recently used images until the cache is within its budget again, e.g. after a
+	 * render made a processor compute its grids.
+	 */
+	synchronized void trim() {
+		long bytes = 0;
+		for (Entry entry : entries.values()) {
+			bytes += entry.getRetainedBytes();
+		}
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			Map.Entry<String, Entry> eldest = iterator.next();
+			if (!eldest.getKey().equals(current)) {
+				bytes -= eldest.getValue().getRetainedBytes();
+				iterator.remove();
+				eldest.getValue().image.close();
+			}
+		}
+	}
+
+	/**
+	 * Starts decoding the image file following the given one in its directory, by name.
+	 * Must be called holding the lock.
+	 */
+	private void prefetchNext(String key) {
+		File directory = new File(key).getParentFile();
+		File[] siblings = directory == null ? null : directory.listFiles(this::isImageFile);
+		if (siblings == null) {
+			return;
+		}
+		Arrays.sort(siblings);
+		int index = Arrays.asList(siblings).indexOf(new File(key));
+		if (index < 0 || index + 1 >= siblings.length) {
+			return;
+		}
+		String next = siblings[index + 1].getPath();
+		if (entries.containsKey(next) || prefetches.containsKey(next)) {
+			return;
+		}
+		prefetches.put(next, prefetcher.submit(() -> {
+			Image image = decode(next);
+			synchronized (this) {
+				// a load waiting for the prefetch adds the image itself
+				if (prefetches.remove(next) != null && !entries.containsKey(next)) {
+					entries.put(next, new Entry(image));
+					trim();
+				}
+			}
+			return image;
+		}));
+	}
+
+	private boolean isImageFile(File file) {
+		String name = file.getName();
+		int dot = name.lastIndexOf('.');
+		return file.isFile() && dot >= 0 &&
+				imageSuffixes.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private static Image awaitPrefetch(Future<Image> prefetch, String key) throws ImageLoadException {
+		try {
+			return prefetch.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ImageLoadException(INVALID_IMAGE_MSG);
+		} catch (ExecutionException e) {
+			// the prefetch failed or was cancelled, so report this load's own failure
+			return decode(key);
+		}
+	}
+
+	private static Image decode(String key) throws ImageLoadException {
+		try {
+			return getPixelCount(key) > OFF_HEAP_PIXELS ? Image.readOffHeap(key) : new Image(key);
+		} catch (IOException e) {
+			throw new ImageLoadException(INVALID_IMAGE_MSG);
+		}
+	}
+
+	private static Image mapRaw(String file, int width, int height) throws ImageLoadException {
+		if (width < 1 || height < 1) {
+			throw new ImageLoadException(INVALID_IMAGE_MSG);
+		}
+		try {
+			return Image.mapRaw(file, width, height);
+		} catch (IOException e) {
+			throw new ImageLoadException(INVALID_IMAGE_MSG);
+		}
+	}
+
+	private static long getPixelCount(String key) throws IOException {
+		return getPixelCount(new File(key));
+	}
+
+	/**
+	 * Reads the dimensions of an image from its header, without decoding it.
+	 * @param input A file, or a stream left open, as accepted by
+	 * {@link ImageIO#createImageInputStream(Object)}.
+	 * @return The number of pixels, or 0 if no reader recognizes the image.
+	 * @throws IOException If the input cannot be read.
+	 */
+	static long getPixelCount(Object input) throws IOException {
+		try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+			if (stream == null) {
+				throw new IOException(INVALID_IMAGE_MSG);
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+			if (!readers.hasNext()) {
+				return 0;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(stream);
+				return (long) reader.getWidth(0) * reader.getHeight(0);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static String getKey(String path) {
+		Path normalized = Paths.get(path).toAbsolutePath().normalize();
+		return normalized.toString();
+	}
+
+	/**
+	 * Produces the image of a cache miss.
+	 */
+	private interface Decoder {
+		Image decode() throws ImageLoadException;
+	}
+
+	/**
+	 * A cached image, its most recently used processors of the whole image and of viewports, and
+	 * its summed-area tables by mode.
+	 */
+	private static final class Entry {
+		private final Image image;
+		private final Map<String, ImageProcessor> processors = createLru(PROCESSORS_PER_IMAGE);
+		private final Map<String, ImageProcessor> viewportProcessors =
+				createLru(VIEWPORT_PROCESSORS_PER_IMAGE);
+		private final EnumMap<LuminanceMode, LuminanceSums> sums = new EnumMap<>(LuminanceMode.class);
+
+		Entry(Image image) {
+			this.image = image;
+		}
+
+		long getRetainedBytes() {
+			long bytes = (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+			for (ImageProcessor processor : processors.values()) {
+				bytes += processor.getRetainedBytes();
+			}
+			for (ImageProcessor processor : viewportProcessors.values()) {
+				bytes += processor.getRetainedBytes();
+			}
+			for (LuminanceSums table : sums.values()) {
+				bytes += table.getRetainedBytes();
+			}
+			return bytes;
+		}
+
+		private static Map<String, ImageProcessor> createLru(int capacity) {
+			return new LinkedHashMap<>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ImageProcessor> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+	}
+}
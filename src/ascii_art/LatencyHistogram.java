@@ -0,0 +1,90 @@
+package ascii_art;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with power-of-two microsecond buckets.
+ * Bucket i counts the samples in [2^(i-1), 2^i) microseconds, which keeps recording
+ * to a single atomic increment while still resolving percentiles to within a factor of two.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class LatencyHistogram {
+
+	private static final int BUCKET_COUNT = Long.SIZE;
+	private static final long NANOS_PER_MICRO = 1000;
+	private static final double[] REPORTED_PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+	private static final String SUMMARY_FORMAT = "count %d%nmean_us %d%nmax_us %d%n";
+	private static final String PERCENTILE_FORMAT = "p%s_us %d%n";
+	private static final String BUCKET_FORMAT = "le_%d_us %d%n";
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/**
+	 * Records a single sample.
+	 * @param nanos The measured latency in nanoseconds.
+	 */
+	void record(long nanos) {
+		long micros = Math.max(0, nanos / NANOS_PER_MICRO);
+		buckets.incrementAndGet(bucketOf(micros));
+		count.incrementAndGet();
+		totalMicros.addAndGet(micros);
+		maxMicros.accumulateAndGet(micros, Math::max);
+	}
+
+	/**
+	 * Returns a plain-text report of the count, mean, max, common percentiles and
+	 * the non-empty buckets, labelled by their inclusive upper bound.
+	 */
+	String report() {
+		long[] snapshot = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = buckets.get(i);
+		}
+		long samples = count.get();
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format(SUMMARY_FORMAT, samples,
+				samples == 0 ? 0 : totalMicros.get() / samples, maxMicros.get()));
+		for (double percentile : REPORTED_PERCENTILES) {
+			builder.append(String.format(PERCENTILE_FORMAT,
+					Double.toString(percentile * 100), percentileUpperBound(snapshot, percentile)));
+		}
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			if (snapshot[i] != 0) {
+				builder.append(String.format(BUCKET_FORMAT, upperBound(i), snapshot[i]));
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the upper bound of the bucket containing the given percentile.
+	 */
+	private static long percentileUpperBound(long[] snapshot, double percentile) {
+		long total = 0;
+		for (long bucket : snapshot) {
+			total += bucket;
+		}
+		long rank = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && seen > 0) {
+				return upperBound(i);
+			}
+		}
+		return 0;
+	}
+
+	private static int bucketOf(long micros) {
+		return BUCKET_COUNT - Long.numberOfLeadingZeros(micros);
+	}
+
+	private static long upperBound(int bucket) {
+		return bucket == 0 ? 0 : (1L << bucket) - 1;
+	}
+}
@@ -0,0 +1,77 @@
+package ascii_art;
+
+import ascii_output.AsciiGrid;
+import image.BrightnessGrid;
+
+/**
+ * Buffers reused across renders, so repeated renders of the same image allocate nothing once
+ * the buffers have grown to the largest resolution used. A grid returned from a render through a
+ * context is overwritten by the next render through it, and a context must not be used by two
+ * renders at once.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class RenderContext {
+
+	private AsciiGrid asciiArt;
+	private BrightnessGrid errorBuffer;
+	private BrightnessGrid contrastBuffer;
+	private ContrastAdjuster contrastAdjuster;
+	private Ditherer ditherer;
+	private DitherMethod dithererMethod;
+
+	/**
+	 * Returns the output grid reshaped to the given dimensions.
+	 */
+	AsciiGrid getAsciiGrid(int width, int height, boolean ascii) {
+		if (asciiArt == null) {
+			asciiArt = new AsciiGrid(width, height, ascii);
+		} else {
+			asciiArt.reshape(width, height, ascii);
+		}
+		return asciiArt;
+	}
+
+	/**
+	 * Returns the dithering error buffer holding a copy of the given brightness grid.
+	 */
+	BrightnessGrid getErrorBuffer(BrightnessGrid brightnesses) {
+		if (errorBuffer == null) {
+			errorBuffer = brightnesses.copy();
+		} else {
+			errorBuffer.copyFrom(brightnesses);
+		}
+		return errorBuffer;
+	}
+
+	/**
+	 * Returns the grid receiving contrast-adjusted brightnesses, of undefined contents.
+	 */
+	BrightnessGrid getContrastBuffer(BrightnessGrid brightnesses) {
+		if (contrastBuffer == null) {
+			contrastBuffer = new BrightnessGrid(brightnesses.getWidth(), brightnesses.getHeight());
+		}
+		return contrastBuffer;
+	}
+
+	/**
+	 * Returns the contrast adjuster, whose histogram is reused by every render.
+	 */
+	ContrastAdjuster getContrastAdjuster() {
+		if (contrastAdjuster == null) {
+			contrastAdjuster = new ContrastAdjuster();
+		}
+		return contrastAdjuster;
+	}
+
+	/**
+	 * Returns a ditherer for the given method, reusing the last one if it matches.
+	 */
+	Ditherer getDitherer(DitherMethod method) {
+		if (ditherer == null || dithererMethod != method) {
+			ditherer = new Ditherer(method);
+			dithererMethod = method;
+		}
+		return ditherer;
+	}
+}
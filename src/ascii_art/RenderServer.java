@@ -0,0 +1,513 @@
+package ascii_art;
+
+import ascii_output.AsciiGrid;
+import ascii_output.ConsoleAsciiOutput;
+import ascii_output.HtmlAsciiOutput;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import exceptions.EmptyCharSetException;
+import exceptions.IllegalFormatException;
+import exceptions.IllegalResolutionException;
+import image.Image;
+import image.ImageProcessor;
+import image.LuminanceMode;
+import image_char_matching.MatchMethod;
+import image_char_matching.RoundMethod;
+import image_char_matching.SubImgCharMatcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP service rendering uploaded images to ASCII art.
+ * <p>
+ * {@code POST /render?res=&lt;n&gt;&amp;chars=&lt;chars&gt;&amp;round=&lt;up|down|abs&gt;&amp;output=&lt;console|html&gt;&amp;match=&lt;brightness|structure&gt;&amp;gamma=&lt;srgb|linear&gt;}
+ * with the image as the request body returns the rendered text or HTML page. All parameters are
+ * optional and default to the shell's defaults. {@code GET /stats} returns the render latency
+ * histogram.
+ * <p>
+ * Renders run on a bounded worker pool. When both the workers and the queue are full the request
+ * is answered immediately with 429 instead of piling up. Decoded images, their processed tiles and
+ * the char matchers are kept in small LRU caches, so repeated renders of the same upload or charset
+ * skip decoding and glyph rendering.
+ * <p>
+ * Uploads are bounded in pixels as well as in bytes: the dimensions are read from the image header
+ * before decoding, and images over {@value #MAX_IMAGE_PIXELS} pixels are rejected with 413. The
+ * image cache is bounded by the bytes it retains, the decoded pixels plus the grids of every
+ * image's processors, like the shell's {@link ImageCache}.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class RenderServer {
+
+	// endpoints
+	private static final String RENDER_PATH = "/render";
+	private static final String STATS_PATH = "/stats";
+	private static final String POST_METHOD = "POST";
+	private static final String GET_METHOD = "GET";
+
+	// query parameters
+	private static final String RES_PARAM = "res";
+	private static final String CHARS_PARAM = "chars";
+	private static final String ROUND_PARAM = "round";
+	private static final String OUTPUT_PARAM = "output";
+	private static final String MATCH_PARAM = "match";
+	private static final String MATCH_BRIGHTNESS_STR = "brightness";
+	private static final String MATCH_STRUCTURE_STR = "structure";
+	private static final String GAMMA_PARAM = "gamma";
+	private static final String GAMMA_SRGB_STR = "srgb";
+	private static final String GAMMA_LINEAR_STR = "linear";
+	private static final String PARAM_SEPARATOR = "&";
+	private static final String KEY_VALUE_SEPARATOR = "=";
+	private static final String ALL_CHARS = "all";
+	private static final String ROUND_UP_STR = "up";
+	private static final String ROUND_DOWN_STR = "down";
+	private static final String ROUND_ABS_STR = "abs";
+	private static final String CONSOLE_OUTPUT_STR = "console";
+	private static final String HTML_OUTPUT_STR = "html";
+
+	// defaults
+	private static final int DEFAULT_RESOLUTION = 2;
+	private static final String DEFAULT_CHARS = "0123456789";
+	private static final char FIRST_LEGAL_CHAR = ' ';
+	private static final char LAST_LEGAL_CHAR = '~';
+	private static final String OUT_FONT_NAME = "Courier New";
+	private static final int QUEUE_DEPTH_PER_WORKER = 4;
+
+	// limits
+	private static final int MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+	private static final long MAX_IMAGE_PIXELS = 40L * 1000 * 1000;
+	private static final long IMAGE_CACHE_BYTES = 256L * 1024 * 1024;
+	private static final int PROCESSORS_PER_IMAGE = 8;
+	private static final int BYTES_PER_PIXEL = Integer.BYTES;
+	private static final int MATCHER_CACHE_SIZE = 32;
+	private static final int SHUTDOWN_GRACE_SECONDS = 5;
+
+	// responses
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int NOT_FOUND = 404;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int PAYLOAD_TOO_LARGE = 413;
+	private static final int UNSUPPORTED_MEDIA_TYPE = 415;
+	private static final int TOO_MANY_REQUESTS = 429;
+	private static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+	private static final String HTML_CONTENT_TYPE = "text/html; charset=utf-8";
+	private static final String CONTENT_TYPE_HEADER = "Content-Type";
+	private static final String RETRY_AFTER_HEADER = "Retry-After";
+	private static final String RETRY_AFTER_SECONDS = "1";
+	private static final String BAD_PARAM_MSG = "Invalid value for parameter \"%s\".";
+	private static final String BAD_IMAGE_MSG = "Could not decode the uploaded image.";
+	private static final String TOO_LARGE_MSG = "Image exceeds %d bytes.";
+	private static final String TOO_MANY_PIXELS_MSG = "Image exceeds %d pixels.";
+	private static final String SATURATED_MSG = "Server is saturated, retry later.";
+	private static final String REJECTED_STATS_FORMAT = "rejected %d%n";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final String CACHE_KEY_SEPARATOR = "@";
+
+	private final HttpServer server;
+	private final ThreadPoolExecutor workers;
+	private final LatencyHistogram latencies = new LatencyHistogram();
+	private final AtomicLong rejected = new AtomicLong();
+	// access ordered, so iteration starts at the least recently used image; guarded by itself
+	private final LinkedHashMap<String, CachedImage> images = new LinkedHashMap<>(16, 0.75f, true);
+	private final LruCache<String, SubImgCharMatcher> matchers = new LruCache<>(MATCHER_CACHE_SIZE);
+	// every worker renders into its own buffers, reused across its requests
+	private final ThreadLocal<RenderContext> renderContexts = ThreadLocal.withInitial(RenderContext::new);
+
+	/**
+	 * Creates a server bound to the given port, rendering on as many workers as there are cores.
+	 * @param port The local port to listen on.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	RenderServer(int port) throws IOException {
+		this(port, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a server bound to the given port.
+	 * @param port The local port to listen on.
+	 * @param workerCount The number of concurrent renders. Up to
+	 *                    {@value #QUEUE_DEPTH_PER_WORKER} times as many requests wait in the queue.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	RenderServer(int port, int workerCount) throws IOException {
+		workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(workerCount * QUEUE_DEPTH_PER_WORKER),
+				new ThreadPoolExecutor.AbortPolicy());
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		// the default dispatcher thread only hands requests off, all real work happens on the pool
+		server.createContext(RENDER_PATH, this::dispatchRender);
+		server.createContext(STATS_PATH, this::handleStats);
+	}
+
+	/**
+	 * Starts serving requests in the background.
+	 */
+	void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting requests and lets queued renders finish.
+	 */
+	void stop() {
+		server.stop(SHUTDOWN_GRACE_SECONDS);
+		workers.shutdown();
+	}
+
+	/**
+	 * Hands a render request to the worker pool, answering 429 if the pool is saturated.
+	 */
+	private void dispatchRender(HttpExchange exchange) throws IOException {
+		long startNanos = System.nanoTime();
+		try {
+			workers.execute(() -> {
+				try {
+					handleRender(exchange);
+				} catch (IOException e) {
+					// the client went away, nothing left to answer
+				} finally {
+					exchange.close();
+					latencies.record(System.nanoTime() - startNanos);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			exchange.getResponseHeaders().set(RETRY_AFTER_HEADER, RETRY_AFTER_SECONDS);
+			respond(exchange, TOO_MANY_REQUESTS, TEXT_CONTENT_TYPE, SATURATED_MSG);
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Renders the uploaded image according to the query parameters.
+	 */
+	private void handleRender(HttpExchange exchange) throws IOException {
+		if (!exchange.getRequestMethod().equals(POST_METHOD)) {
+			respond(exchange, METHOD_NOT_ALLOWED, TEXT_CONTENT_TYPE, POST_METHOD);
+			return;
+		}
+
+		byte[] body = readBody(exchange.getRequestBody());
+		if (body == null) {
+			respond(exchange, PAYLOAD_TOO_LARGE, TEXT_CONTENT_TYPE,
+					String.format(TOO_LARGE_MSG, MAX_UPLOAD_BYTES));
+			return;
+		}
+
+		String imageKey = digest(body);
+		CachedImage cached;
+		synchronized (images) {
+			cached = images.get(imageKey);
+		}
+		if (cached == null) {
+			Image image;
+			try {
+				// the header is checked first, so a small upload cannot decode to gigabytes
+				if (ImageCache.getPixelCount(new ByteArrayInputStream(body)) > MAX_IMAGE_PIXELS) {
+					respond(exchange, PAYLOAD_TOO_LARGE, TEXT_CONTENT_TYPE,
+							String.format(TOO_MANY_PIXELS_MSG, MAX_IMAGE_PIXELS));
+					return;
+				}
+				image = new Image(new ByteArrayInputStream(body));
+			} catch (IOException e) {
+				respond(exchange, UNSUPPORTED_MEDIA_TYPE, TEXT_CONTENT_TYPE, BAD_IMAGE_MSG);
+				return;
+			}
+			synchronized (images) {
+				cached = images.computeIfAbsent(imageKey, key -> new CachedImage(image));
+			}
+		}
+		Image image = cached.image;
+
+		try {
+			Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			int resolution = parseResolution(params.get(RES_PARAM), image);
+			SubImgCharMatcher matcher = getMatcher(params.get(CHARS_PARAM), params.get(ROUND_PARAM));
+			String output = params.getOrDefault(OUTPUT_PARAM, CONSOLE_OUTPUT_STR);
+			if (!output.equals(CONSOLE_OUTPUT_STR) && !output.equals(HTML_OUTPUT_STR)) {
+				throw new IllegalFormatException(String.format(BAD_PARAM_MSG, OUTPUT_PARAM));
+			}
+
+			MatchMethod matchMethod = parseMatchMethod(params.get(MATCH_PARAM));
+			LuminanceMode luminanceMode = parseLuminanceMode(params.get(GAMMA_PARAM));
+
+			String processorKey = resolution + CACHE_KEY_SEPARATOR + luminanceMode;
+			ImageProcessor processor = getProcessor(cached, processorKey, resolution, luminanceMode);
+			AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(processor, matcher);
+			algorithm.setMatchMethod(matchMethod);
+			AsciiGrid asciiArt = algorithm.render(renderContexts.get());
+			// the render may have made the processor compute its grids
+			trimImages(cached, processorKey, processor.getRetainedBytes());
+			StringWriter rendered = new StringWriter();
+			if (output.equals(HTML_OUTPUT_STR)) {
+				new HtmlAsciiOutput(null, OUT_FONT_NAME).write(asciiArt, rendered);
+				respond(exchange, OK, HTML_CONTENT_TYPE, rendered.toString());
+			} else {
+				new ConsoleAsciiOutput().write(asciiArt, rendered);
+				respond(exchange, OK, TEXT_CONTENT_TYPE, rendered.toString());
+			}
+		} catch (IllegalFormatException | IllegalResolutionException | EmptyCharSetException e) {
+			respond(exchange, BAD_REQUEST, TEXT_CONTENT_TYPE, e.getMessage());
+		}
+	}
+
+	/**
+	 * Reports the latency histogram of all renders, including time spent queued.
+	 */
+	private void handleStats(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			if (!exchange.getRequestMethod().equals(GET_METHOD)) {
+				respond(exchange, METHOD_NOT_ALLOWED, TEXT_CONTENT_TYPE, GET_METHOD);
+				return;
+			}
+			if (!exchange.getRequestURI().getPath().equals(STATS_PATH)) {
+				respond(exchange, NOT_FOUND, TEXT_CONTENT_TYPE, "");
+				return;
+			}
+			respond(exchange, OK, TEXT_CONTENT_TYPE,
+					latencies.report() + String.format(REJECTED_STATS_FORMAT, rejected.get()));
+		}
+	}
+
+	/**
+	 * Returns the cached processor of the image for the given resolution and luminance mode,
+	 * creating it if needed.
+	 */
+	private ImageProcessor getProcessor(CachedImage cached, String key, int resolution,
+										LuminanceMode luminanceMode) {
+		synchronized (images) {
+			return cached.processors.computeIfAbsent(key,
+					k -> new ImageProcessor(cached.image, resolution, luminanceMode));
+		}
+	}
+
+	/**
+	 * Records the bytes a processor retains after a render, then evicts least recently used
+	 * images, with their processors, until the image cache is within {@value #IMAGE_CACHE_BYTES}
+	 * bytes again. Sizes are recorded rather than read under the lock, so a trim never waits for
+	 * another render's processor. Renders still using an evicted image finish normally, since heap
+	 * images are never closed.
+	 */
+	private void trimImages(CachedImage rendered, String processorKey, long processorBytes) {
+		synchronized (images) {
+			if (rendered.processors.containsKey(processorKey)) {
+				rendered.processorBytes.put(processorKey, processorBytes);
+			}
+			long bytes = 0;
+			for (CachedImage cached : images.values()) {
+				bytes += cached.getRetainedBytes();
+			}
+			Iterator<CachedImage> iterator = images.values().iterator();
+			while (bytes > IMAGE_CACHE_BYTES && iterator.hasNext()) {
+				bytes -= iterator.next().getRetainedBytes();
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached matcher for the given charset and rounding method, creating it if needed.
+	 * @throws IllegalFormatException If a char or the rounding method is not legal.
+	 */
+	private SubImgCharMatcher getMatcher(String chars, String round) throws IllegalFormatException {
+		char[] charset = parseChars(chars == null ? DEFAULT_CHARS : chars);
+		RoundMethod roundMethod = parseRoundMethod(round);
+		String key = new String(charset) + CACHE_KEY_SEPARATOR + roundMethod;
+		SubImgCharMatcher matcher = matchers.get(key);
+		if (matcher == null) {
+			matcher = new SubImgCharMatcher(charset);
+			matcher.setRoundMethod(roundMethod);
+			matchers.put(key, matcher);
+		}
+		return matcher;
+	}
+
+	/**
+	 * Parses the charset parameter into a sorted array of distinct legal chars.
+	 */
+	private static char[] parseChars(String chars) throws IllegalFormatException {
+		if (chars.equals(ALL_CHARS)) {
+			char[] all = new char[LAST_LEGAL_CHAR - FIRST_LEGAL_CHAR + 1];
+			for (char c = FIRST_LEGAL_CHAR; c <= LAST_LEGAL_CHAR; c++) {
+				all[c - FIRST_LEGAL_CHAR] = c;
+			}
+			return all;
+		}
+		for (int i = 0; i < chars.length(); i++) {
+			if (chars.charAt(i) < FIRST_LEGAL_CHAR || chars.charAt(i) > LAST_LEGAL_CHAR) {
+				throw new IllegalFormatException(String.format(BAD_PARAM_MSG, CHARS_PARAM));
+			}
+		}
+		// sorted and de-duplicated so equivalent charsets share one cached matcher
+		return chars.chars().sorted().distinct()
+				.collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+				.toString().toCharArray();
+	}
+
+	private static RoundMethod parseRoundMethod(String round) throws IllegalFormatException {
+		if (round == null) {
+			return RoundMethod.ROUND_ABS;
+		}
+		return switch (round) {
+			case ROUND_UP_STR -> RoundMethod.ROUND_UP;
+			case ROUND_DOWN_STR -> RoundMethod.ROUND_DOWN;
+			case ROUND_ABS_STR -> RoundMethod.ROUND_ABS;
+			default -> throw new IllegalFormatException(String.format(BAD_PARAM_MSG, ROUND_PARAM));
+		};
+	}
+
+	private static MatchMethod parseMatchMethod(String match) throws IllegalFormatException {
+		if (match == null) {
+			return MatchMethod.BRIGHTNESS;
+		}
+		return switch (match) {
+			case MATCH_BRIGHTNESS_STR -> MatchMethod.BRIGHTNESS;
+			case MATCH_STRUCTURE_STR -> MatchMethod.STRUCTURE;
+			default -> throw new IllegalFormatException(String.format(BAD_PARAM_MSG, MATCH_PARAM));
+		};
+	}
+
+	private static LuminanceMode parseLuminanceMode(String gamma) throws IllegalFormatException {
+		if (gamma == null) {
+			return LuminanceMode.GAMMA_ENCODED;
+		}
+		return switch (gamma) {
+			case GAMMA_SRGB_STR -> LuminanceMode.GAMMA_ENCODED;
+			case GAMMA_LINEAR_STR -> LuminanceMode.LINEAR_LIGHT;
+			default -> throw new IllegalFormatException(String.format(BAD_PARAM_MSG, GAMMA_PARAM));
+		};
+	}
+
+	private static int parseResolution(String res, Image image)
+			throws IllegalFormatException, IllegalResolutionException {
+		int resolution;
+		try {
+			resolution = res == null ? DEFAULT_RESOLUTION : Integer.parseInt(res);
+		} catch (NumberFormatException e) {
+			throw new IllegalFormatException(String.format(BAD_PARAM_MSG, RES_PARAM));
+		}
+		if (!ImageProcessor.isLegalResolution(image, resolution)) {
+			throw new IllegalResolutionException(String.format(BAD_PARAM_MSG, RES_PARAM));
+		}
+		return resolution;
+	}
+
+	private static Map<String, String> parseQuery(String rawQuery) {
+		Map<String, String> params = new HashMap<>();
+		if (rawQuery == null || rawQuery.isEmpty()) {
+			return params;
+		}
+		for (String pair : rawQuery.split(PARAM_SEPARATOR)) {
+			int separator = pair.indexOf(KEY_VALUE_SEPARATOR);
+			if (separator < 0) {
+				continue;
+			}
+			params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+					URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+		}
+		return params;
+	}
+
+	/**
+	 * Reads the request body, or returns null if it exceeds {@value #MAX_UPLOAD_BYTES} bytes.
+	 */
+	private static byte[] readBody(InputStream in) throws IOException {
+		byte[] body = in.readNBytes(MAX_UPLOAD_BYTES + 1);
+		return body.length > MAX_UPLOAD_BYTES ? null : body;
+	}
+
+	private static String digest(byte[] bytes) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(bytes));
+		} catch (NoSuchAlgorithmException e) {
+			// every JRE is required to provide SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String contentType, String body)
+			throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set(CONTENT_TYPE_HEADER, contentType);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * A decoded upload and its most recently used processors, guarded by the image cache's lock.
+	 */
+	private static final class CachedImage {
+		private final Image image;
+		// the bytes every processor retained after its latest render
+		private final Map<String, Long> processorBytes = new HashMap<>();
+		private final LinkedHashMap<String, ImageProcessor> processors =
+				new LinkedHashMap<>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, ImageProcessor> eldest) {
+						if (size() <= PROCESSORS_PER_IMAGE) {
+							return false;
+						}
+						processorBytes.remove(eldest.getKey());
+						return true;
+					}
+				};
+
+		CachedImage(Image image) {
+			this.image = image;
+		}
+
+		long getRetainedBytes() {
+			long bytes = (long) image.getWidth() * image.getHeight() * BYTES_PER_PIXEL;
+			for (long processor : processorBytes.values()) {
+				bytes += processor;
+			}
+			return bytes;
+		}
+	}
+
+	/**
+	 * A fixed-capacity map evicting the least recently used entry, safe for concurrent use.
+	 */
+	private static class LruCache<K, V> {
+		private final Map<K, V> entries;
+
+		LruCache(int capacity) {
+			entries = new LinkedHashMap<>(capacity, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		synchronized V get(K key) {
+			return entries.get(key);
+		}
+
+		synchronized void put(K key, V value) {
+			entries.put(key, value);
+		}
+	}
+}
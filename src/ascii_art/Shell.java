@@ -1,17 +1,28 @@
 package ascii_art;
 
+import ascii_output.AnsiAsciiOutput;
 import ascii_output.AsciiOutput;
 import ascii_output.ConsoleAsciiOutput;
 import ascii_output.HtmlAsciiOutput;
+import ascii_output.PngAsciiOutput;
 import exceptions.EmptyCharSetException;
+import exceptions.ImageLoadException;
 import exceptions.IllegalResolutionException;
 import image.Image;
 import image.ImageProcessor;
+import image.LuminanceMode;
+import image.Viewport;
+import image_char_matching.MatchMethod;
 import image_char_matching.RoundMethod;
 import image_char_matching.SubImgCharMatcher;
 import exceptions.IllegalFormatException;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.function.Consumer;
 
 /**
@@ -28,6 +39,7 @@ public class Shell {
 	private static final String NEXT_INPUT_MSG = ">>> ";
 	private static final String EXIT_INPUT = "exit";
 	private static final String SPACEBAR_STRING = " ";
+	private static final char SPACEBAR_CHAR = ' ';
 	private static final String RUN_ASCII_ART_INPUT = "asciiArt";
 	// Error messages
 	private static final String INVALID_IMG_PATH_MSG =
@@ -42,6 +54,32 @@ public class Shell {
 									= "Did not change resolution due to exceeding boundaries.";
 	private static final String ROUNDING_METHOD_FORMAT_EXCEPTION
 									= "Did not change rounding method due to incorrect format.";
+	private static final String MATCH_METHOD_FORMAT_EXCEPTION
+									= "Did not change matching method due to incorrect format.";
+	private static final String DITHER_METHOD_FORMAT_EXCEPTION
+									= "Did not change dithering method due to incorrect format.";
+	private static final String CONTRAST_METHOD_FORMAT_EXCEPTION
+									= "Did not change contrast method due to incorrect format.";
+	private static final String PROGRESSIVE_FORMAT_EXCEPTION
+									= "Did not change progressive mode due to incorrect format.";
+	private static final String LOAD_FORMAT_EXCEPTION
+									= "Did not load image due to incorrect format.";
+	private static final String PREFETCH_FORMAT_EXCEPTION
+									= "Did not change prefetching due to incorrect format.";
+	private static final String SUB_CELL_MODE_FORMAT_EXCEPTION
+									= "Did not change sub-cell mode due to incorrect format.";
+	private static final String COLOR_FORMAT_EXCEPTION
+									= "Did not change color mode due to incorrect format.";
+	private static final String ZOOM_FORMAT_EXCEPTION
+									= "Did not zoom due to incorrect format.";
+	private static final String ZOOM_BOUNDARIES_EXCEPTION
+									= "Did not zoom due to exceeding boundaries.";
+	private static final String PAN_FORMAT_EXCEPTION
+									= "Did not pan due to incorrect format.";
+	private static final String PAN_NO_ZOOM_EXCEPTION
+									= "Did not pan due to no active zoom.";
+	private static final String GAMMA_MODE_FORMAT_EXCEPTION
+									= "Did not change gamma mode due to incorrect format.";
 	private static final String ADD_REMOVE_ERROR_MESSAGE = "Did not %s due to incorrect format.";
 
 
@@ -49,6 +87,9 @@ public class Shell {
 	// output settings
 	private static final String CONSOLE_ASCII_OUTPUT_STR = "console";
 	private static final String HTML_ASCII_OUTPUT_STR = "html";
+	private static final String ANSI_ASCII_OUTPUT_STR = "ansi";
+	private static final String PNG_ASCII_OUTPUT_STR = "png";
+	private static final String PNG_OUT_FILE_SRC = "out.png";
 	private static final String HTML_OUT_FILE_SRC = "out.html";
 	private static final String OUT_FONT_NAME = "Courier New";
 	private static final String ASCII_OUTPUT_INPUT_STR = "output";
@@ -82,6 +123,93 @@ public class Shell {
 	private static final String RESOLUTION_SET_TO_MESSAGE = "Resolution set to %d.";
 	private static final int ROUND_ARG_HOLDER = 1;
 
+	// match settings
+	private static final String MATCH_INPUT_STR = "match";
+	private static final String MATCH_BRIGHTNESS_STR = "brightness";
+	private static final String MATCH_STRUCTURE_STR = "structure";
+	private static final int MATCH_ARG_HOLDER = 1;
+
+	// dither settings
+	private static final String DITHER_INPUT_STR = "dither";
+	private static final String DITHER_NONE_STR = "none";
+	private static final String DITHER_FLOYD_STEINBERG_STR = "fs";
+	private static final String DITHER_ATKINSON_STR = "atkinson";
+	private static final int DITHER_ARG_HOLDER = 1;
+
+	// contrast settings
+	private static final String CONTRAST_INPUT_STR = "contrast";
+	private static final String CONTRAST_NONE_STR = "none";
+	private static final String CONTRAST_STRETCH_STR = "stretch";
+	private static final String CONTRAST_EQUALIZE_STR = "equalize";
+	private static final int CONTRAST_ARG_HOLDER = 1;
+
+	// progressive settings
+	private static final String PROGRESSIVE_INPUT_STR = "progressive";
+	private static final String PROGRESSIVE_ON_STR = "on";
+	private static final String PROGRESSIVE_OFF_STR = "off";
+	private static final int PROGRESSIVE_ARG_HOLDER = 1;
+
+	// image loading settings
+	private static final String LOAD_INPUT_STR = "load";
+	private static final int LOAD_PATH_ARG = 1;
+	private static final String LOAD_RAW_FLAG = "--raw";
+	private static final int LOAD_RAW_WIDTH_ARG = 2;
+	private static final int LOAD_RAW_HEIGHT_ARG = 3;
+	private static final int LOAD_RAW_PATH_ARG = 4;
+	private static final String PREFETCH_INPUT_STR = "prefetch";
+	private static final String PREFETCH_ON_STR = "on";
+	private static final String PREFETCH_OFF_STR = "off";
+	private static final int PREFETCH_ARG_HOLDER = 1;
+	private static final long IMAGE_CACHE_BYTES = 256L * 1024 * 1024;
+
+	// sub-cell settings
+	private static final String SUB_CELL_INPUT_STR = "subcell";
+	private static final String SUB_CELL_NONE_STR = "none";
+	private static final String SUB_CELL_QUADRANT_STR = "quadrant";
+	private static final String SUB_CELL_BRAILLE_STR = "braille";
+	private static final int SUB_CELL_ARG_HOLDER = 1;
+
+	// color settings
+	private static final String COLOR_INPUT_STR = "color";
+	private static final String COLOR_ON_STR = "on";
+	private static final String COLOR_OFF_STR = "off";
+	private static final int COLOR_ARG_HOLDER = 1;
+	private static final String COLORED_ZOOM_NOTE = "Note: colors of a zoomed region are averaged from " +
+			"all of its pixels rather than from precomputed sums, so large regions render slower in color.";
+
+	// viewport settings
+	private static final String ZOOM_INPUT_STR = "zoom";
+	private static final String ZOOM_OFF_STR = "off";
+	private static final int ZOOM_X_ARG = 1;
+	private static final int ZOOM_Y_ARG = 2;
+	private static final int ZOOM_WIDTH_ARG = 3;
+	private static final int ZOOM_HEIGHT_ARG = 4;
+	private static final String PAN_INPUT_STR = "pan";
+	private static final int PAN_DX_ARG = 1;
+	private static final int PAN_DY_ARG = 2;
+
+	// gamma settings
+	private static final String GAMMA_INPUT_STR = "gamma";
+	private static final String GAMMA_SRGB_STR = "srgb";
+	private static final String GAMMA_LINEAR_STR = "linear";
+	private static final int GAMMA_ARG_HOLDER = 1;
+
+	// server mode settings
+	private static final String SERVER_FLAG = "--server";
+	private static final int SERVER_PORT_ARG = 1;
+	private static final int DEFAULT_SERVER_PORT = 8080;
+	private static final String SERVER_STARTED_MSG = "Serving ASCII art on port %d.";
+	private static final String INVALID_PORT_MSG = "Invalid port, try running the program again with a valid port.";
+
+	// script mode settings
+	private static final String SCRIPT_FLAG = "--script";
+	private static final int SCRIPT_FLAG_ARG = 1;
+	private static final int SCRIPT_PATH_ARG = 2;
+	private static final String SCRIPT_STDIN_PATH = "-";
+	private static final String INVALID_SCRIPT_MSG =
+			"Could not read the script, try running the program again with a valid script path.";
+	private static final String SCRIPT_TIMINGS_HEADER = "Command timings:";
+
 	// defaults
 	private static final char[] DEFAULT_CHAR_DATABASE = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
 	private static final int DEFAULT_RESOLUTION = 2;
@@ -93,12 +221,42 @@ public class Shell {
 	// The image to be manipulated
 	private Image image;
 
+	// The images of this session and their processed tiles
+	private final ImageCache imageCache = new ImageCache(IMAGE_CACHE_BYTES);
+
 	// The set resolution of the image output
 	private int resolution = DEFAULT_RESOLUTION;
 
+	// The method used to match tiles to chars
+	private MatchMethod matchMethod = MatchMethod.BRIGHTNESS;
+
+	// The method used to diffuse the brightness quantization error
+	private DitherMethod ditherMethod = DitherMethod.NONE;
+
+	// The remapping of tile brightnesses before matching
+	private ContrastMethod contrastMethod = ContrastMethod.NONE;
+
+	// Whether tiles are drawn as sub-cell patterns instead of chars of the charset
+	private SubCellMode subCellMode = SubCellMode.NONE;
+
+	// Whether rendered grids carry tile colors, for outputs that draw them
+	private boolean colored = false;
+
+	// The region of the image that is rendered, or null for the whole image
+	private Viewport viewport = null;
+
+	// Whether a coarse preview is output before every full render
+	private boolean progressive = false;
+
+	// The space in which tile luminance is averaged
+	private LuminanceMode luminanceMode = LuminanceMode.GAMMA_ENCODED;
+
 	// The preferred output method
 	private AsciiOutput asciiOutput;
 
+	// Buffers reused by every asciiArt command
+	private final RenderContext renderContext = new RenderContext();
+
 
 	/**
 	 * Constructs a new Shell instance, initializing the character matcher
@@ -112,6 +270,7 @@ public class Shell {
 	/**
 	 * Sets the ASCII output method based on the provided arguments.
 	 * @param args The arguments array, where the first argument is expected to be "output"
+	 *             and the second "console", "html", "ansi" (redraw only changed cells) or "png".
 	 * @throws IllegalFormatException if the arguments are not formatted correctly or if an
 	 * unsupported output type is specified.
 	 */
@@ -122,6 +281,10 @@ public class Shell {
 			asciiOutput = new HtmlAsciiOutput(HTML_OUT_FILE_SRC, OUT_FONT_NAME);
 		} else if (args[OUTPUT_TYPE_ARG_HOLDER].equals(CONSOLE_ASCII_OUTPUT_STR)) {
 			asciiOutput = new ConsoleAsciiOutput();
+		} else if (args[OUTPUT_TYPE_ARG_HOLDER].equals(ANSI_ASCII_OUTPUT_STR)) {
+			asciiOutput = new AnsiAsciiOutput();
+		} else if (args[OUTPUT_TYPE_ARG_HOLDER].equals(PNG_ASCII_OUTPUT_STR)) {
+			asciiOutput = new PngAsciiOutput(PNG_OUT_FILE_SRC);
 		} else {
 			throw new IllegalFormatException(INCORRECT_ASCII_OUTPUT_FORMAT_EXCEPTION);
 		}
@@ -129,9 +292,17 @@ public class Shell {
 
 	/**
 	 * Main method to run the ASCII art shell application.
-	 * @param args The command line arguments, where the first argument is expected to be the image path.
+	 * @param args The command line arguments, where the first argument is expected to be the image path,
+	 *             or "--server" optionally followed by a port to serve renders over HTTP instead.
+	 *             The image path may be followed by "--script" and a file of commands to run
+	 *             without prompts, or "-" to run the commands piped into standard input.
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals(SERVER_FLAG)) {
+			runServer(args);
+			return;
+		}
+
 		String imgSrc;
 		try {
 			imgSrc = args[0];
@@ -141,7 +312,39 @@ public class Shell {
 		}
 
 		Shell shell = new Shell();
-		shell.run(imgSrc);
+		try {
+			if (args.length > SCRIPT_PATH_ARG && args[SCRIPT_FLAG_ARG].equals(SCRIPT_FLAG)) {
+				if (args[SCRIPT_PATH_ARG].equals(SCRIPT_STDIN_PATH)) {
+					shell.runScript(imgSrc, new BufferedReader(new InputStreamReader(System.in)));
+				} else {
+					try (BufferedReader script = Files.newBufferedReader(Paths.get(args[SCRIPT_PATH_ARG]))) {
+						shell.runScript(imgSrc, script);
+					}
+				}
+			} else {
+				shell.run(imgSrc);
+			}
+		} catch (IOException e) {
+			System.out.println(INVALID_SCRIPT_MSG);
+		}
+	}
+
+	/**
+	 * Starts the HTTP render server, which keeps running until the JVM is terminated.
+	 * @param args The command line arguments, where the second argument is an optional port.
+	 */
+	private static void runServer(String[] args) {
+		int port = DEFAULT_SERVER_PORT;
+		try {
+			if (args.length > SERVER_PORT_ARG) {
+				port = Integer.parseInt(args[SERVER_PORT_ARG]);
+			}
+			new RenderServer(port).start();
+		} catch (NumberFormatException | IOException e) {
+			System.out.println(INVALID_PORT_MSG);
+			return;
+		}
+		System.out.println(String.format(SERVER_STARTED_MSG, port));
 	}
 
 	/**
@@ -150,10 +353,7 @@ public class Shell {
 	 *                     Program will exit if the image path is invalid.
 	 */
 	public void run(String imageName) {
-		try {
-			image = new Image(imageName);
-		} catch (IOException e) {
-			System.out.println(INVALID_IMG_PATH_MSG);
+		if (!loadImage(imageName)) {
 			return;
 		}
 
@@ -161,24 +361,125 @@ public class Shell {
 		do {
 			System.out.print(NEXT_INPUT_MSG);
 			input = KeyboardInput.readLine();
-			String[] input_args = input.split(SPACEBAR_STRING);
-			try {
-				switch (input_args[0]) {
-					case EXIT_INPUT -> {
-					}
-					case CHARS_INPUT -> charMatcher.printChars();
-					case RUN_ASCII_ART_INPUT -> runAsciiArt();
-					case ADD_INPUT_STR -> addChar(input_args);
-					case REMOVE_INPUT_STR -> removeChar(input_args);
-					case ASCII_OUTPUT_INPUT_STR -> setAsciiOutput(input_args);
-					case RES_INPUT_STR -> setResolution(input_args);
-					case ROUND_INPUT_STR -> setRoundingMethod(input_args);
-					default -> System.out.println(INCORRECT_INPUT_FORMAT_MSG);
+			executeCommand(tokenize(input));
+		} while(!input.equals(EXIT_INPUT));
+	}
+
+	/**
+	 * Runs the commands read from the given reader without printing prompts, until an exit
+	 * command or the end of the input, skipping blank lines, then prints how long every command
+	 * took to standard error. Lines are parsed exactly like interactive input.
+	 * @param imageName Path to the image file to be processed.
+	 *                     Program will exit if the image path is invalid.
+	 * @param commands The commands, one per line.
+	 * @throws IOException If the commands cannot be read.
+	 */
+	public void runScript(String imageName, BufferedReader commands) throws IOException {
+		if (!loadImage(imageName)) {
+			return;
+		}
+
+		CommandTimings timings = new CommandTimings();
+		String line;
+		while ((line = commands.readLine()) != null) {
+			// trimmed like KeyboardInput.readLine trims interactive input
+			String input = line.trim();
+			if (input.isEmpty()) {
+				continue;
+			}
+			String[] inputArgs = tokenize(input);
+			long start = System.nanoTime();
+			executeCommand(inputArgs);
+			timings.record(inputArgs[0], System.nanoTime() - start);
+			if (input.equals(EXIT_INPUT)) {
+				break;
+			}
+		}
+		System.out.flush();
+		System.err.println(SCRIPT_TIMINGS_HEADER);
+		System.err.print(timings.report());
+	}
+
+	/**
+	 * Loads the image to be manipulated.
+	 * @return false, after printing a message, if the image path is invalid.
+	 */
+	private boolean loadImage(String imageName) {
+		try {
+			image = imageCache.load(imageName);
+		} catch (ImageLoadException e) {
+			System.out.println(INVALID_IMG_PATH_MSG);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Executes a single command, printing the message of any error it raised.
+	 * @param inputArgs The command words, where the first is the command name.
+	 */
+	private void executeCommand(String[] inputArgs) {
+		try {
+			switch (inputArgs[0]) {
+				case EXIT_INPUT -> {
 				}
-			} catch (IllegalFormatException | IllegalResolutionException | EmptyCharSetException e){
-				System.out.println(e.getMessage());
+				case CHARS_INPUT -> charMatcher.printChars();
+				case RUN_ASCII_ART_INPUT -> runAsciiArt();
+				case ADD_INPUT_STR -> addChar(inputArgs);
+				case REMOVE_INPUT_STR -> removeChar(inputArgs);
+				case ASCII_OUTPUT_INPUT_STR -> setAsciiOutput(inputArgs);
+				case RES_INPUT_STR -> setResolution(inputArgs);
+				case ROUND_INPUT_STR -> setRoundingMethod(inputArgs);
+				case MATCH_INPUT_STR -> setMatchMethod(inputArgs);
+				case DITHER_INPUT_STR -> setDitherMethod(inputArgs);
+				case GAMMA_INPUT_STR -> setLuminanceMode(inputArgs);
+				case CONTRAST_INPUT_STR -> setContrastMethod(inputArgs);
+				case PROGRESSIVE_INPUT_STR -> setProgressive(inputArgs);
+				case SUB_CELL_INPUT_STR -> setSubCellMode(inputArgs);
+				case COLOR_INPUT_STR -> setColored(inputArgs);
+				case ZOOM_INPUT_STR -> setZoom(inputArgs);
+				case PAN_INPUT_STR -> pan(inputArgs);
+				case LOAD_INPUT_STR -> loadImage(inputArgs);
+				case PREFETCH_INPUT_STR -> setPrefetch(inputArgs);
+				default -> System.out.println(INCORRECT_INPUT_FORMAT_MSG);
 			}
-		} while(!input.equals(EXIT_INPUT));
+		} catch (IllegalFormatException | IllegalResolutionException | EmptyCharSetException |
+				 ImageLoadException e){
+			System.out.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * Splits a command line into words at every space, without a regular expression.
+	 * Like {@link String#split(String)} with a single space, consecutive spaces produce empty
+	 * words and trailing empty words are dropped, but a blank line produces one empty word.
+	 * @param input The command line.
+	 * @return The words of the line.
+	 */
+	private static String[] tokenize(String input) {
+		int end = input.length();
+		while (end > 0 && input.charAt(end - 1) == SPACEBAR_CHAR) {
+			end--;
+		}
+		if (end == 0) {
+			return new String[]{""};
+		}
+
+		int count = 1;
+		for (int i = 0; i < end; i++) {
+			if (input.charAt(i) == SPACEBAR_CHAR) {
+				count++;
+			}
+		}
+		String[] words = new String[count];
+		int start = 0;
+		for (int i = 0; i < count; i++) {
+			int space = input.indexOf(SPACEBAR_CHAR, start);
+			int wordEnd = space < 0 || space > end ? end : space;
+			words[i] = input.substring(start, wordEnd);
+			start = wordEnd + 1;
+		}
+		return words;
 	}
 
 	/**
@@ -198,12 +499,284 @@ public class Shell {
 		}
 	}
 
+	/**
+	 * Sets how image tiles are matched to chars based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be "match"
+	 *                  and the second either "brightness" or "structure".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setMatchMethod(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= MATCH_ARG_HOLDER) {
+			throw new IllegalFormatException(MATCH_METHOD_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[MATCH_ARG_HOLDER]) {
+			case MATCH_BRIGHTNESS_STR -> matchMethod = MatchMethod.BRIGHTNESS;
+			case MATCH_STRUCTURE_STR -> matchMethod = MatchMethod.STRUCTURE;
+			default -> throw new IllegalFormatException(MATCH_METHOD_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Sets how the brightness quantization error is diffused based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be "dither"
+	 *                  and the second "none", "fs" (Floyd-Steinberg) or "atkinson".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setDitherMethod(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= DITHER_ARG_HOLDER) {
+			throw new IllegalFormatException(DITHER_METHOD_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[DITHER_ARG_HOLDER]) {
+			case DITHER_NONE_STR -> ditherMethod = DitherMethod.NONE;
+			case DITHER_FLOYD_STEINBERG_STR -> ditherMethod = DitherMethod.FLOYD_STEINBERG;
+			case DITHER_ATKINSON_STR -> ditherMethod = DitherMethod.ATKINSON;
+			default -> throw new IllegalFormatException(DITHER_METHOD_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Sets how tile brightnesses are remapped before matching based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "contrast" and the second "none", "stretch" or "equalize".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setContrastMethod(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= CONTRAST_ARG_HOLDER) {
+			throw new IllegalFormatException(CONTRAST_METHOD_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[CONTRAST_ARG_HOLDER]) {
+			case CONTRAST_NONE_STR -> contrastMethod = ContrastMethod.NONE;
+			case CONTRAST_STRETCH_STR -> contrastMethod = ContrastMethod.STRETCH;
+			case CONTRAST_EQUALIZE_STR -> contrastMethod = ContrastMethod.EQUALIZE;
+			default -> throw new IllegalFormatException(CONTRAST_METHOD_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Switches to another image based on the provided input arguments. Recently used images and
+	 * their processed tiles are taken from the session cache. The whole new image is rendered,
+	 * and the resolution is kept if it is legal for it, and reset to the default otherwise.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be "load"
+	 *                  and the rest the image path, which may contain spaces. A raw file of packed
+	 *                  pixels, mapped rather than decoded, is loaded with "--raw", its width and
+	 *                  height, and then its path.
+	 * @throws IllegalFormatException if no path is given, or the raw dimensions are not numbers.
+	 * @throws ImageLoadException if the image cannot be read, in which case the image is kept.
+	 */
+	private void loadImage(String[] inputArgs) throws IllegalFormatException, ImageLoadException {
+		if (inputArgs.length <= LOAD_PATH_ARG) {
+			throw new IllegalFormatException(LOAD_FORMAT_EXCEPTION);
+		}
+
+		if (inputArgs[LOAD_PATH_ARG].equals(LOAD_RAW_FLAG)) {
+			if (inputArgs.length <= LOAD_RAW_PATH_ARG) {
+				throw new IllegalFormatException(LOAD_FORMAT_EXCEPTION);
+			}
+			int width = parseInt(inputArgs[LOAD_RAW_WIDTH_ARG], LOAD_FORMAT_EXCEPTION);
+			int height = parseInt(inputArgs[LOAD_RAW_HEIGHT_ARG], LOAD_FORMAT_EXCEPTION);
+			image = imageCache.loadRaw(String.join(SPACEBAR_STRING,
+					Arrays.copyOfRange(inputArgs, LOAD_RAW_PATH_ARG, inputArgs.length)), width, height);
+		} else {
+			image = imageCache.load(String.join(SPACEBAR_STRING,
+					Arrays.copyOfRange(inputArgs, LOAD_PATH_ARG, inputArgs.length)));
+		}
+		viewport = null;
+		if (!ImageProcessor.isLegalResolution(image, resolution)) {
+			resolution = DEFAULT_RESOLUTION;
+			System.out.println(String.format(RESOLUTION_SET_TO_MESSAGE, resolution));
+		}
+	}
+
+	/**
+	 * Sets whether loading an image decodes the next image of its directory in the background,
+	 * based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "prefetch" and the second "on" or "off".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setPrefetch(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= PREFETCH_ARG_HOLDER) {
+			throw new IllegalFormatException(PREFETCH_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[PREFETCH_ARG_HOLDER]) {
+			case PREFETCH_ON_STR -> imageCache.setPrefetch(true);
+			case PREFETCH_OFF_STR -> imageCache.setPrefetch(false);
+			default -> throw new IllegalFormatException(PREFETCH_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Sets whether chars are drawn in the mean color of their tile based on the provided input
+	 * arguments. Only the html output draws colors.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "color" and the second "on" or "off".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setColored(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= COLOR_ARG_HOLDER) {
+			throw new IllegalFormatException(COLOR_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[COLOR_ARG_HOLDER]) {
+			case COLOR_ON_STR -> colored = true;
+			case COLOR_OFF_STR -> colored = false;
+			default -> throw new IllegalFormatException(COLOR_FORMAT_EXCEPTION);
+		}
+		printColoredZoomNote();
+	}
+
+	/**
+	 * Restricts rendering to a region of the image based on the provided input arguments. The
+	 * region is split into as many columns as the resolution, which must not exceed its width.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "zoom" and the rest either the x, y, width and height of the region in
+	 *                  pixels, or "off" to render the whole image again.
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 * @throws IllegalResolutionException if the region exceeds the image or is narrower than the
+	 * resolution.
+	 */
+	private void setZoom(String[] inputArgs) throws IllegalFormatException, IllegalResolutionException {
+		if (inputArgs.length == ZOOM_X_ARG + 1 && inputArgs[ZOOM_X_ARG].equals(ZOOM_OFF_STR)) {
+			viewport = null;
+			return;
+		}
+		if (inputArgs.length <= ZOOM_HEIGHT_ARG) {
+			throw new IllegalFormatException(ZOOM_FORMAT_EXCEPTION);
+		}
+
+		Viewport newViewport = new Viewport(
+				parseInt(inputArgs[ZOOM_X_ARG], ZOOM_FORMAT_EXCEPTION),
+				parseInt(inputArgs[ZOOM_Y_ARG], ZOOM_FORMAT_EXCEPTION),
+				parseInt(inputArgs[ZOOM_WIDTH_ARG], ZOOM_FORMAT_EXCEPTION),
+				parseInt(inputArgs[ZOOM_HEIGHT_ARG], ZOOM_FORMAT_EXCEPTION));
+		if (!newViewport.isWithin(image) || !ImageProcessor.isLegalResolution(newViewport, resolution)) {
+			throw new IllegalResolutionException(ZOOM_BOUNDARIES_EXCEPTION);
+		}
+		viewport = newViewport;
+		printColoredZoomNote();
+	}
+
+	/**
+	 * Notes that colored renders of a zoomed region cannot use the image's luminance sums, and so
+	 * read every pixel of the region, when both are active.
+	 */
+	private void printColoredZoomNote() {
+		if (colored && viewport != null) {
+			System.out.println(COLORED_ZOOM_NOTE);
+		}
+	}
+
+	/**
+	 * Moves the rendered region of the image based on the provided input arguments, stopping at
+	 * the edges of the image.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be "pan"
+	 *                  and the second and third the horizontal and vertical offset in pixels.
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly, or no
+	 * zoom is active.
+	 */
+	private void pan(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= PAN_DY_ARG) {
+			throw new IllegalFormatException(PAN_FORMAT_EXCEPTION);
+		}
+
+		int dx = parseInt(inputArgs[PAN_DX_ARG], PAN_FORMAT_EXCEPTION);
+		int dy = parseInt(inputArgs[PAN_DY_ARG], PAN_FORMAT_EXCEPTION);
+		if (viewport == null) {
+			throw new IllegalFormatException(PAN_NO_ZOOM_EXCEPTION);
+		}
+		viewport = viewport.translate(dx, dy, image);
+	}
+
+	/**
+	 * @return The region of the image that is rendered.
+	 */
+	private Viewport getViewport() {
+		return viewport != null ? viewport : Viewport.of(image);
+	}
+
+	/**
+	 * Parses a command argument as an integer.
+	 * @param arg The argument.
+	 * @param formatMessage The message of the exception thrown if it is not an integer.
+	 * @return The integer.
+	 * @throws IllegalFormatException if the argument is not an integer.
+	 */
+	private static int parseInt(String arg, String formatMessage) throws IllegalFormatException {
+		try {
+			return Integer.parseInt(arg);
+		} catch (NumberFormatException e) {
+			throw new IllegalFormatException(formatMessage);
+		}
+	}
+
+	/**
+	 * Sets whether tiles are drawn as sub-cell patterns based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "subcell" and the second "none", "quadrant" (2x2) or "braille" (2x4).
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setSubCellMode(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= SUB_CELL_ARG_HOLDER) {
+			throw new IllegalFormatException(SUB_CELL_MODE_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[SUB_CELL_ARG_HOLDER]) {
+			case SUB_CELL_NONE_STR -> subCellMode = SubCellMode.NONE;
+			case SUB_CELL_QUADRANT_STR -> subCellMode = SubCellMode.QUADRANT;
+			case SUB_CELL_BRAILLE_STR -> subCellMode = SubCellMode.BRAILLE;
+			default -> throw new IllegalFormatException(SUB_CELL_MODE_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Sets whether a coarse preview is output before every full render based on the provided
+	 * input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be
+	 *                  "progressive" and the second "on" or "off".
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setProgressive(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= PROGRESSIVE_ARG_HOLDER) {
+			throw new IllegalFormatException(PROGRESSIVE_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[PROGRESSIVE_ARG_HOLDER]) {
+			case PROGRESSIVE_ON_STR -> progressive = true;
+			case PROGRESSIVE_OFF_STR -> progressive = false;
+			default -> throw new IllegalFormatException(PROGRESSIVE_FORMAT_EXCEPTION);
+		}
+	}
+
+	/**
+	 * Sets in which space tile luminance is averaged based on the provided input arguments.
+	 * @param inputArgs The input arguments array, where the first argument is expected to be "gamma"
+	 *                  and the second "srgb" (average encoded values) or "linear" (average light).
+	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
+	 */
+	private void setLuminanceMode(String[] inputArgs) throws IllegalFormatException {
+		if (inputArgs.length <= GAMMA_ARG_HOLDER) {
+			throw new IllegalFormatException(GAMMA_MODE_FORMAT_EXCEPTION);
+		}
+
+		switch (inputArgs[GAMMA_ARG_HOLDER]) {
+			case GAMMA_SRGB_STR -> luminanceMode = LuminanceMode.GAMMA_ENCODED;
+			case GAMMA_LINEAR_STR -> luminanceMode = LuminanceMode.LINEAR_LIGHT;
+			default -> throw new IllegalFormatException(GAMMA_MODE_FORMAT_EXCEPTION);
+		}
+	}
+
 	/**
 	 * Sets the resolution for the image processing based on the provided input arguments.
 	 * @param inputArgs The input arguments array, where the first argument is expected to be "res",
-	 *                  and the second argument can be "up","down", or omitted to display the current resolution.
+	 *                  and the second argument can be "up", "down", a number of output columns,
+	 *                  or omitted to display the current resolution.
 	 * @throws IllegalFormatException if the input arguments are not formatted correctly.
-	 * @throws IllegalResolutionException if the new resolution exceeds the legal boundaries for the image.
+	 * @throws IllegalResolutionException if the new resolution exceeds the legal boundaries for the
+	 * rendered region of the image.
 	 */
 	private void setResolution(String[] inputArgs)
 			throws IllegalFormatException, IllegalResolutionException {
@@ -211,15 +784,19 @@ public class Shell {
 		int newRes;
 		if (inputArgs.length <= RES_ARG_HOLDER) {
 			newRes = resolution;
-		} else if (inputArgs[RES_ARG_HOLDER].equals("up")) {
+		} else if (inputArgs[RES_ARG_HOLDER].equals(ROUND_UP_STR)) {
 			newRes = resolution * 2;
-		} else if (inputArgs[RES_ARG_HOLDER].equals("down")) {
+		} else if (inputArgs[RES_ARG_HOLDER].equals(ROUND_DOWN_STR)) {
 			newRes = resolution / 2;
 		} else {
-			throw new IllegalFormatException(RESOLUTION_FORMAT_EXCEPTION_MESSAGE);
+			try {
+				newRes = Integer.parseInt(inputArgs[RES_ARG_HOLDER]);
+			} catch (NumberFormatException e) {
+				throw new IllegalFormatException(RESOLUTION_FORMAT_EXCEPTION_MESSAGE);
+			}
 		}
 
-		if (!ImageProcessor.isLegalResolution(image, newRes)) {
+		if (!ImageProcessor.isLegalResolution(getViewport(), newRes)) {
 			throw new IllegalResolutionException(EXCEEDING_BOUNDRIES_EXCEPTION_MESSEGE);
 		}
 
@@ -230,13 +807,26 @@ public class Shell {
 
 
 	/**
-	 * Runs the ASCII art generation process using the current image, resolution, and character matcher.
+	 * Runs the ASCII art generation process using the current image region, resolution, and
+	 * character matcher.
 	 * @throws EmptyCharSetException If the character set is empty, indicating that not enough
 	 * characters are available for generating ASCII art.
 	 */
 	private void runAsciiArt() throws EmptyCharSetException{
-		AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(image, resolution, charMatcher);
-		asciiOutput.out(asciiArtAlgorithm.run());
+		AsciiArtAlgorithm asciiArtAlgorithm = new AsciiArtAlgorithm(
+				imageCache.getProcessor(image, resolution, luminanceMode, getViewport()), charMatcher);
+		asciiArtAlgorithm.setMatchMethod(matchMethod);
+		asciiArtAlgorithm.setDitherMethod(ditherMethod);
+		asciiArtAlgorithm.setContrastMethod(contrastMethod);
+		asciiArtAlgorithm.setSubCellMode(subCellMode);
+		asciiArtAlgorithm.setColored(colored);
+		if (progressive) {
+			// the full render replaces the preview in outputs that redraw or rewrite their target
+			asciiOutput.outPreview(asciiArtAlgorithm.renderPreview(renderContext));
+		}
+		asciiOutput.out(asciiArtAlgorithm.render(renderContext));
+		// the render may have grown the cached tiles past the budget
+		imageCache.trim();
 	}
 
 	/**
@@ -281,7 +871,7 @@ public class Shell {
 		String arg = args[CHAR_HANDLE_ARG];
 		
 		if (arg.length() == CHAR_LENGTH){
-			checkIfCharIsInRange(arg.charAt(0));
+			checkIfCharIsPrintable(arg.charAt(0));
 			characterConsumer.accept(arg.charAt(0));
 		} else if (arg.equals(SPACE_INPUT_STRING)) {
 			characterConsumer.accept(SPACEBAR_STRING.charAt(0));
@@ -328,6 +918,22 @@ public class Shell {
 		}
 	}
 
+	/**
+	 * Checks if the given character may be added on its own. Beyond the legal range, any
+	 * printable Unicode character is allowed, e.g. block elements or Braille patterns.
+	 * @param c The character to check.
+	 * @throws IllegalFormatException if the character is unassigned, or a control, format,
+	 * private use or surrogate character.
+	 */
+	private void checkIfCharIsPrintable(char c) throws IllegalFormatException {
+		int type = Character.getType(c);
+		if (c < FIRST_LEGAL_CHAR || !Character.isDefined(c) || Character.isISOControl(c) ||
+				Character.isSurrogate(c) || type == Character.FORMAT || type == Character.PRIVATE_USE ||
+				type == Character.UNASSIGNED) {
+			throw new IllegalFormatException(ADD_REMOVE_ERROR_MESSAGE);
+		}
+	}
+
 	/**
 	 * Handles a range of characters from char1 to char2, applying the provided consumer to each character in the range.
 	 * @param char1 The first character in the range.
@@ -0,0 +1,19 @@
+package ascii_art;
+
+
+/**
+ * This enum determines whether every output char stands for a single tile brightness or for a
+ * pattern of darker and lighter sub-cells drawn with Unicode block or Braille chars.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public enum SubCellMode {
+	/** Every tile is matched to a char of the charset. */
+	NONE,
+
+	/** Every tile is split 2x2 and drawn as a quadrant block element, U+2580 to U+259F. */
+	QUADRANT,
+
+	/** Every tile is split 2 wide and 4 high and drawn as a Braille pattern, U+2800 to U+28FF. */
+	BRAILLE
+}
@@ -0,0 +1,88 @@
+package ascii_art;
+
+import ascii_output.AsciiGrid;
+import image.BrightnessGrid;
+
+/**
+ * Draws every tile as a pattern of sub-cells. Each sub-cell darker than
+ * {@value #DARK_THRESHOLD} sets one bit of the tile's pattern, and the pattern indexes a
+ * precomputed table of the char drawing exactly those sub-cells, so a tile costs its threshold
+ * comparisons and one table lookup.
+ * <p>
+ * Pattern bit (row * columns + column) stands for the sub-cell at that row and column of the tile.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class SubCellRenderer {
+
+	static final int QUADRANT_COLUMNS = 2;
+	static final int QUADRANT_ROWS = 2;
+	static final int BRAILLE_COLUMNS = 2;
+	static final int BRAILLE_ROWS = 4;
+
+	// Sub-cells below this brightness are drawn, i.e. inked
+	private static final float DARK_THRESHOLD = 0.5f;
+
+	// Quadrant blocks by pattern, bits {upper left, upper right, lower left, lower right}
+	private static final char[] QUADRANT_PATTERNS = {
+			' ', '\u2598', '\u259D', '\u2580', '\u2596', '\u258C', '\u259E', '\u259B',
+			'\u2597', '\u259A', '\u2590', '\u259C', '\u2584', '\u2599', '\u259F', '\u2588'};
+
+	private static final char BRAILLE_BLANK = '\u2800';
+	// The Braille dot bit of every sub-cell, in pattern bit order. Dots 1-3 and 4-6 run down the
+	// left and right columns of the upper three rows, dots 7 and 8 are the bottom row.
+	private static final int[] BRAILLE_DOT_BITS = {0, 3, 1, 4, 2, 5, 6, 7};
+	private static final char[] BRAILLE_PATTERNS = buildBraillePatterns();
+
+	/**
+	 * Draws every tile of the output grid from its sub-cells.
+	 * @param mode The sub-cell mode, must not be {@link SubCellMode#NONE}.
+	 * @param subCells The sub-cell brightnesses, {@link #getColumns} times as wide and
+	 *                 {@link #getRows} times as high as the output grid.
+	 * @param asciiArt The output grid, which must not be ASCII.
+	 */
+	static void render(SubCellMode mode, BrightnessGrid subCells, AsciiGrid asciiArt) {
+		int subColumns = getColumns(mode);
+		int subRows = getRows(mode);
+		char[] patterns = mode == SubCellMode.BRAILLE ? BRAILLE_PATTERNS : QUADRANT_PATTERNS;
+		float[] values = subCells.getValues();
+		int width = subCells.getWidth();
+
+		for (int row = 0; row < asciiArt.getHeight(); row++) {
+			for (int col = 0; col < asciiArt.getWidth(); col++) {
+				int pattern = 0;
+				int first = row * subRows * width + col * subColumns;
+				for (int y = 0; y < subRows; y++) {
+					for (int x = 0; x < subColumns; x++) {
+						if (values[first + y * width + x] < DARK_THRESHOLD) {
+							pattern |= 1 << (y * subColumns + x);
+						}
+					}
+				}
+				asciiArt.set(row, col, patterns[pattern]);
+			}
+		}
+	}
+
+	static int getColumns(SubCellMode mode) {
+		return mode == SubCellMode.BRAILLE ? BRAILLE_COLUMNS : QUADRANT_COLUMNS;
+	}
+
+	static int getRows(SubCellMode mode) {
+		return mode == SubCellMode.BRAILLE ? BRAILLE_ROWS : QUADRANT_ROWS;
+	}
+
+	private static char[] buildBraillePatterns() {
+		char[] patterns = new char[1 << (BRAILLE_COLUMNS * BRAILLE_ROWS)];
+		for (int pattern = 0; pattern < patterns.length; pattern++) {
+			int dots = 0;
+			for (int bit = 0; bit < BRAILLE_DOT_BITS.length; bit++) {
+				if ((pattern & (1 << bit)) != 0) {
+					dots |= 1 << BRAILLE_DOT_BITS[bit];
+				}
+			}
+			patterns[pattern] = (char) (BRAILLE_BLANK + dots);
+		}
+		return patterns;
+	}
+}
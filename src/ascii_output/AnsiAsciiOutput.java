@@ -0,0 +1,338 @@
+package ascii_output;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Outputs grids to an ANSI terminal, redrawing only what changed since the last grid.
+ * <p>
+ * The first grid, and every grid whose dimensions differ from the last one, clears the screen and
+ * is drawn from its top-left corner in the console format. Later grids of the same dimensions are
+ * compared with the remembered frame, and only runs of changed cells are written, each preceded
+ * by a cursor-positioning escape code. Two runs are merged when rewriting the unchanged cells
+ * between them is shorter than positioning the cursor again. When the runs would take no fewer
+ * bytes than clearing the screen and drawing the whole frame, the frame is drawn whole instead.
+ * After every grid the cursor is moved below the frame and the rest of the screen is cleared, and
+ * the number of bytes written, these included, is reported next to what a full redraw of the
+ * frame would have written. Output is encoded as UTF-8, and bytes are counted as encoded, so a
+ * Braille or block element cell counts three bytes for its char.
+ * <p>
+ * A preview, smaller than the grid that follows it, is drawn over the top-left corner of the
+ * frame, redrawing only the cells of that corner that differ, so the following grid is still
+ * compared with the frame rather than cleared and drawn whole. Its full redraw is that of the
+ * frame with the preview in its corner. Only when there is no frame large enough to hold it is
+ * the preview drawn alone.
+ * <p>
+ * The frame is assumed to stay where it was drawn, so it must fit in the terminal, and anything
+ * printed between grids must not scroll it.
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class AnsiAsciiOutput implements AsciiOutput {
+    private static final String ESCAPE = "\u001b[";
+    private static final String CLEAR_SCREEN = ESCAPE + "2J";
+    private static final String CURSOR_HOME = ESCAPE + "H";
+    private static final String CLEAR_TO_END = ESCAPE + "J";
+    private static final char ROW_COLUMN_SEPARATOR = ';';
+    private static final char CURSOR_POSITION = 'H';
+    // every cell is printed as its char followed by a space, as on the console
+    private static final int CHARS_PER_CELL = 2;
+    private static final char CELL_SEPARATOR = ' ';
+    // the largest chars of one and of two UTF-8 bytes
+    private static final char MAX_ONE_BYTE_CHAR = 0x7F;
+    private static final char MAX_TWO_BYTE_CHAR = 0x7FF;
+    private static final String REPORT_FORMAT = "Wrote %d bytes, a full redraw is %d bytes.";
+
+    private char[] frame = new char[0];
+    private int frameWidth = -1;
+    private int frameHeight = -1;
+    private char[] row = new char[0];
+    private char[] line = new char[0];
+
+    @Override
+    public void out(char[][] chars) {
+        int width = chars.length == 0 ? 0 : chars[0].length;
+        AsciiGrid grid = new AsciiGrid(width, chars.length, false);
+        for (int y = 0; y < chars.length; y++) {
+            for (int x = 0; x < width; x++) {
+                grid.set(y, x, chars[y][x]);
+            }
+        }
+        out(grid);
+    }
+
+    @Override
+    public void out(AsciiGrid grid) {
+        out(grid, false);
+    }
+
+    @Override
+    public void outPreview(AsciiGrid preview) {
+        out(preview, true);
+    }
+
+    private void out(AsciiGrid grid, boolean preview) {
+        // System.out must stay open, so the writer is flushed rather than closed
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            long written = preview ? writePreview(grid, writer) : write(grid, writer);
+            written += writeEnd(writer);
+            writer.write(String.format(REPORT_FORMAT, written, getFullRedrawSize()));
+            writer.write(System.lineSeparator());
+            writer.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().severe("Failed to write to the console");
+        }
+    }
+
+    /**
+     * Writes the changes from the last written grid to the given one, or the whole grid if its
+     * dimensions changed or the changes are no shorter, and remembers it as the last grid. The
+     * writer is left open.
+     * @return The number of bytes written, encoded as UTF-8.
+     */
+    public long write(AsciiGrid grid, Writer writer) throws IOException {
+        ensureRowCapacity(grid.getWidth());
+        if (grid.getWidth() != frameWidth || grid.getHeight() != frameHeight) {
+            setFrame(grid);
+            return writeFull(writer);
+        }
+        return writeShorter(grid, writer);
+    }
+
+    /**
+     * Writes a preview over the top-left corner of the last written grid, updating that corner of
+     * the remembered frame, so the grid that follows is compared with the frame as usual. The
+     * changed cells are written, or the whole updated frame if that is no longer. If the preview
+     * does not fit in the frame, it is written whole and remembered as the last grid. The writer
+     * is left open.
+     * @return The number of bytes written, encoded as UTF-8.
+     */
+    public long writePreview(AsciiGrid preview, Writer writer) throws IOException {
+        ensureRowCapacity(preview.getWidth());
+        if (preview.getWidth() > frameWidth || preview.getHeight() > frameHeight) {
+            setFrame(preview);
+            return writeFull(writer);
+        }
+        return writeShorter(preview, writer);
+    }
+
+    /**
+     * @return The number of bytes a full redraw of the last written grid writes, encoded as
+     * UTF-8, including the cursor move and clearing that end every grid.
+     */
+    public long getFullRedrawSize() {
+        return getRedrawSize(null) + getEndSize();
+    }
+
+    private void ensureRowCapacity(int width) {
+        if (row.length < width) {
+            row = new char[width];
+            line = new char[width * CHARS_PER_CELL];
+        }
+    }
+
+    /**
+     * Writes the cells of the grid that differ from the top-left corner of the frame, which must
+     * be at least as large as the grid, or redraws the whole updated frame if the changes are not
+     * shorter than that.
+     * @return The number of bytes written.
+     */
+    private long writeShorter(AsciiGrid grid, Writer writer) throws IOException {
+        if (writeChanges(grid, null) < getRedrawSize(grid)) {
+            return writeChanges(grid, writer);
+        }
+        for (int y = 0; y < grid.getHeight(); y++) {
+            grid.getRow(y, frame, y * frameWidth);
+        }
+        return writeFull(writer);
+    }
+
+    /**
+     * Writes the cells of the grid that differ from the top-left corner of the frame, which must
+     * be at least as large as the grid, and updates the frame.
+     * @param writer The writer, or null to only count the bytes, leaving the frame as it is.
+     * @return The number of bytes written, or that would be written.
+     */
+    private long writeChanges(AsciiGrid grid, Writer writer) throws IOException {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        long written = 0;
+        for (int y = 0; y < height; y++) {
+            grid.getRow(y, row, 0);
+            int offset = y * frameWidth;
+            int x = 0;
+            while (x < width) {
+                if (row[x] == frame[offset + x]) {
+                    x++;
+                    continue;
+                }
+                // extend the run over gaps that are cheaper to rewrite than to skip
+                int start = x;
+                int end = x + 1;
+                int next = end;
+                while (next < width) {
+                    int gapSize = 0;
+                    while (next < width && row[next] == frame[offset + next]) {
+                        gapSize += getCellSize(row[next]);
+                        next++;
+                    }
+                    if (next == width || gapSize > getCursorSize(y, next)) {
+                        break;
+                    }
+                    end = next + 1;
+                    next = end;
+                }
+                if (writer == null) {
+                    written += getCursorSize(y, start) + getCellsSize(start, end);
+                } else {
+                    written += writeCursor(y, start, writer);
+                    written += writeCells(start, end, writer);
+                    System.arraycopy(row, start, frame, offset + start, end - start);
+                }
+                x = end;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return The number of bytes a full redraw of the frame writes, with the given grid over
+     * its top-left corner unless it is null, excluding the end of the grid.
+     */
+    private long getRedrawSize(AsciiGrid overlay) {
+        long size = CLEAR_SCREEN.length() + CURSOR_HOME.length() +
+                (long) frameHeight * System.lineSeparator().length();
+        int overlayWidth = overlay == null ? 0 : overlay.getWidth();
+        int overlayHeight = overlay == null ? 0 : overlay.getHeight();
+        for (int y = 0; y < frameHeight; y++) {
+            int offset = y * frameWidth;
+            int x = 0;
+            if (y < overlayHeight) {
+                overlay.getRow(y, row, 0);
+                for (; x < overlayWidth; x++) {
+                    size += getCellSize(row[x]);
+                }
+            }
+            for (; x < frameWidth; x++) {
+                size += getCellSize(frame[offset + x]);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remembers the grid as the frame, without writing it.
+     */
+    private void setFrame(AsciiGrid grid) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        if (frame.length < width * height) {
+            frame = new char[width * height];
+        }
+        for (int y = 0; y < height; y++) {
+            grid.getRow(y, frame, y * width);
+        }
+        frameWidth = width;
+        frameHeight = height;
+    }
+
+    /**
+     * Clears the screen and writes the whole frame.
+     * @return The number of bytes written.
+     */
+    private long writeFull(Writer writer) throws IOException {
+        writer.write(CLEAR_SCREEN);
+        writer.write(CURSOR_HOME);
+        long written = CLEAR_SCREEN.length() + CURSOR_HOME.length();
+        for (int y = 0; y < frameHeight; y++) {
+            System.arraycopy(frame, y * frameWidth, row, 0, frameWidth);
+            written += writeCells(0, frameWidth, writer);
+            writer.write(System.lineSeparator());
+            written += System.lineSeparator().length();
+        }
+        return written;
+    }
+
+    /**
+     * Moves the cursor below the frame and clears the rest of the screen.
+     * @return The number of bytes written.
+     */
+    private long writeEnd(Writer writer) throws IOException {
+        writeCursor(frameHeight, 0, writer);
+        writer.write(CLEAR_TO_END);
+        return getEndSize();
+    }
+
+    private int getEndSize() {
+        return getCursorSize(frameHeight, 0) + CLEAR_TO_END.length();
+    }
+
+    /**
+     * Writes cells [start, end) of the current row in the console format.
+     * @return The number of bytes written.
+     */
+    private int writeCells(int start, int end, Writer writer) throws IOException {
+        int length = 0;
+        int size = 0;
+        for (int x = start; x < end; x++) {
+            line[length++] = row[x];
+            line[length++] = CELL_SEPARATOR;
+            size += getCellSize(row[x]);
+        }
+        writer.write(line, 0, length);
+        return size;
+    }
+
+    /**
+     * @return The number of bytes {@link #writeCells} writes for cells [start, end).
+     */
+    private int getCellsSize(int start, int end) {
+        int size = 0;
+        for (int x = start; x < end; x++) {
+            size += getCellSize(row[x]);
+        }
+        return size;
+    }
+
+    /**
+     * @return The number of UTF-8 bytes of a cell, its char and the separator. Chars beyond the
+     * Basic Multilingual Plane cannot be cells.
+     */
+    private static int getCellSize(char c) {
+        int charSize = c <= MAX_ONE_BYTE_CHAR ? 1 : c <= MAX_TWO_BYTE_CHAR ? 2 : 3;
+        return charSize + 1;
+    }
+
+    /**
+     * Moves the cursor to the first char of the given cell.
+     * @return The number of bytes written.
+     */
+    private static int writeCursor(int y, int x, Writer writer) throws IOException {
+        writer.write(ESCAPE);
+        writer.write(Integer.toString(y + 1));
+        writer.write(ROW_COLUMN_SEPARATOR);
+        writer.write(Integer.toString(x * CHARS_PER_CELL + 1));
+        writer.write(CURSOR_POSITION);
+        return getCursorSize(y, x);
+    }
+
+    /**
+     * @return The number of bytes of the escape code moving the cursor to the given cell.
+     */
+    private static int getCursorSize(int y, int x) {
+        return ESCAPE.length() + digits(y + 1) + 1 + digits(x * CHARS_PER_CELL + 1) + 1;
+    }
+
+    private static int digits(int value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,163 @@
+package ascii_output;
+
+/**
+ * A rendered grid of chars stored row-major in a single array: one byte per cell when every char
+ * is in the ASCII range, one char per cell otherwise. Rows are contiguous, so writers can copy a
+ * whole row at once instead of reading cell by cell. A grid may also hold a color for every cell,
+ * which outputs that support color draw the cell in.
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class AsciiGrid {
+    private static final int MAX_ASCII_CHAR = 0x7F;
+
+    private byte[] bytes;
+    private char[] chars;
+    private int[] colors;
+    private boolean colored;
+    private int width;
+    private int height;
+
+    /**
+     * Constructs a grid of the given dimensions.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param ascii Whether every char set in the grid will be at most 0x7F, in which case
+     *              cells are stored as single bytes.
+     */
+    public AsciiGrid(int width, int height, boolean ascii) {
+        reshape(width, height, ascii);
+    }
+
+    /**
+     * Changes the dimensions and storage of the grid for reuse. The backing array is kept when it
+     * is large enough, so reshaping to the same or a smaller size allocates nothing. The contents
+     * are undefined and the grid has no colors afterwards.
+     * @param width The new number of columns.
+     * @param height The new number of rows.
+     * @param ascii Whether cells are stored as bytes, see {@link #AsciiGrid(int, int, boolean)}.
+     */
+    public void reshape(int width, int height, boolean ascii) {
+        int cells = width * height;
+        if (ascii) {
+            if (bytes == null || bytes.length < cells) {
+                bytes = new byte[cells];
+            }
+            chars = null;
+        } else {
+            if (chars == null || chars.length < cells) {
+                chars = new char[cells];
+            }
+            bytes = null;
+        }
+        this.width = width;
+        this.height = height;
+        this.colored = false;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Whether cells are stored as bytes, see {@link #getBytes()}.
+     */
+    public boolean isAscii() {
+        return bytes != null;
+    }
+
+    public char get(int row, int col) {
+        return bytes != null ? (char) bytes[row * width + col] : chars[row * width + col];
+    }
+
+    /**
+     * Sets a cell. Chars above 0x7F may only be set in a grid that is not ASCII.
+     */
+    public void set(int row, int col, char c) {
+        if (bytes != null) {
+            if (c > MAX_ASCII_CHAR) {
+                throw new IllegalArgumentException("Char outside the ASCII range in an ASCII grid");
+            }
+            bytes[row * width + col] = (byte) c;
+        } else {
+            chars[row * width + col] = c;
+        }
+    }
+
+    /**
+     * Copies one row into the given array.
+     * @param row The row to copy.
+     * @param dest The destination array, at least destOffset + width long.
+     * @param destOffset The index of the row's first char in dest.
+     */
+    public void getRow(int row, char[] dest, int destOffset) {
+        int start = row * width;
+        if (bytes == null) {
+            System.arraycopy(chars, start, dest, destOffset, width);
+            return;
+        }
+        for (int x = 0; x < width; x++) {
+            dest[destOffset + x] = (char) bytes[start + x];
+        }
+    }
+
+    /**
+     * Returns the backing byte array of an ASCII grid, where cell (row, col) is at
+     * index row * width + col, or null if the grid is not ASCII. The array may be longer than
+     * width * height after {@link #reshape}.
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns the backing char array of a grid that is not ASCII, where cell (row, col) is at
+     * index row * width + col, or null if the grid is ASCII. The array may be longer than
+     * width * height after {@link #reshape}.
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    /**
+     * Sets the color of every cell.
+     * @param colors The colors packed as 0xRRGGBB, where cell (row, col) is at index
+     *               row * width + col.
+     */
+    public void setColors(int[] colors) {
+        int cells = width * height;
+        if (this.colors == null || this.colors.length < cells) {
+            this.colors = new int[cells];
+        }
+        System.arraycopy(colors, 0, this.colors, 0, cells);
+        colored = true;
+    }
+
+    /**
+     * Whether the cells have colors, see {@link #setColors(int[])}.
+     */
+    public boolean hasColors() {
+        return colored;
+    }
+
+    /**
+     * @return The color of a cell packed as 0xRRGGBB, only meaningful if {@link #hasColors()}.
+     */
+    public int getColor(int row, int col) {
+        return colors[row * width + col];
+    }
+
+    /**
+     * @return The grid as an array of rows.
+     */
+    public char[][] toCharArrays() {
+        char[][] rows = new char[height][width];
+        for (int y = 0; y < height; y++) {
+            getRow(y, rows[y], 0);
+        }
+        return rows;
+    }
+}
@@ -10,4 +10,21 @@ public interface AsciiOutput {
      * Output the specified 2D array of chars
      */
     void out(char[][] chars);
+
+    /**
+     * Output the specified grid of chars. Implementations should override this to read whole
+     * rows from the grid, the default converts it to a 2D array first.
+     */
+    default void out(AsciiGrid grid) {
+        out(grid.toCharArrays());
+    }
+
+    /**
+     * Output a coarse preview of the grid that will be output next. Outputs that compare every
+     * grid with the last one should override this so the preview is not compared with, the
+     * default outputs it like any other grid.
+     */
+    default void outPreview(AsciiGrid preview) {
+        out(preview);
+    }
 }
@@ -1,16 +1,69 @@
 package ascii_output;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
 /**
- * Output a 2D array of chars to the console.
+ * Output a 2D array of chars to the console, encoded as UTF-8 so chars outside the ASCII range
+ * survive whatever the platform's default charset is.
  * @author Dan Nirel
  */public class ConsoleAsciiOutput implements AsciiOutput{
     @Override
     public void out(char[][] chars) {
+        // System.out must stay open, so the writer is flushed rather than closed
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            write(chars, writer);
+            writer.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().severe("Failed to write to the console");
+        }
+    }
+
+    @Override
+    public void out(AsciiGrid grid) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            write(grid, writer);
+            writer.flush();
+        } catch (IOException e) {
+            Logger.getGlobal().severe("Failed to write to the console");
+        }
+    }
+
+    /**
+     * Writes the console representation of the chars to the given writer,
+     * which is left open.
+     */
+    public void write(char[][] chars, Writer writer) throws IOException {
         for (int y = 0; y < chars.length ; y++) {
             for (int x = 0; x < chars[y].length; x++) {
-                System.out.print(chars[y][x] + " ");
+                writer.write(chars[y][x]);
+                writer.write(' ');
+            }
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Writes the console representation of the grid to the given writer, one write per row.
+     * The writer is left open.
+     */
+    public void write(AsciiGrid grid, Writer writer) throws IOException {
+        char[] row = new char[grid.getWidth()];
+        char[] line = new char[grid.getWidth() * 2];
+        for (int y = 0; y < grid.getHeight(); y++) {
+            grid.getRow(y, row, 0);
+            for (int x = 0; x < row.length; x++) {
+                line[2 * x] = row[x];
+                line[2 * x + 1] = ' ';
             }
-            System.out.println();
+            writer.write(line);
+            writer.write(System.lineSeparator());
         }
     }
 }
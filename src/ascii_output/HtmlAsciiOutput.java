@@ -3,15 +3,30 @@ package ascii_output;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.logging.Logger;
 
 /**
  * Output a 2D array of chars to an HTML file viewable in a web browser.
+ * The file is encoded as UTF-8 and declares so, since chars may be outside the ASCII range.
+ * Grids with colors are written with every char in its cell's color, quantized to 4 bits per
+ * channel so neighboring cells of similar colors share one span. Spaces show no color, so they
+ * join whichever span is open.
  * @author Dan Nirel
  */
 public class HtmlAsciiOutput implements AsciiOutput {
     private static final double BASE_LINE_SPACING = 0.8;
     private static final double BASE_FONT_SIZE = 150.0;
+    private static final int CHANNEL_MASK = 0xFF;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int QUANTIZED_MAX = 0xF;
+    private static final int NO_COLOR = -1;
+    private static final String SPAN_START = "<span style=\"color:#";
+    private static final String SPAN_START_END = "\">";
+    private static final String SPAN_END = "</span>";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     private final String fontName;
     private final String filename;
@@ -23,41 +38,151 @@ public class HtmlAsciiOutput implements AsciiOutput {
 
     @Override
     public void out(char[][] chars) {
-        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
-            writer.write(String.format(
-                "<!DOCTYPE html>\n"+
-                "<html>\n"+
-                "<body style=\""+
-                    "\tCOLOR:#000000;"+
-                    "\tTEXT-ALIGN:center;"+
-                    "\tFONT-SIZE:1px;\">\n"+
-                "<p style=\""+
-                    "\twhite-space:pre;"+
-                    "\tFONT-FAMILY:%s;"+
-                    "\tFONT-SIZE:%frem;"+
-                    "\tLETTER-SPACING:0.15em;"+
-                    "\tLINE-HEIGHT:%fem;\">\n",
-                    fontName, BASE_FONT_SIZE/chars[0].length, BASE_LINE_SPACING));
-
-            for(int y = 0 ; y < chars.length ; y++) {
-                for (int x = 0; x < chars[y].length ; x++) {
-                    String htmlRep;
-                    switch(chars[y][x]) {
-                        case '<': htmlRep = "&lt;";  break;
-                        case '>': htmlRep = "&gt;";  break;
-                        case '&': htmlRep = "&amp;"; break;
-                        default:  htmlRep = String.valueOf(chars[y][x]);
-                    }
-                    writer.write(htmlRep);
-                }
-                writer.newLine();
-            }
-            writer.write(
-                "</p>\n"+
-                "</body>\n"+
-                "</html>\n");
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename, StandardCharsets.UTF_8))) {
+            write(chars, writer);
         } catch(IOException e) {
             Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
         }
     }
+
+    @Override
+    public void out(AsciiGrid grid) {
+        try(BufferedWriter writer = new BufferedWriter(new FileWriter(filename, StandardCharsets.UTF_8))) {
+            write(grid, writer);
+        } catch(IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+
+    /**
+     * Writes the HTML document to the given writer, which is left open.
+     */
+    public void write(char[][] chars, Writer writer) throws IOException {
+        writeHeader(chars[0].length, writer);
+        for(int y = 0 ; y < chars.length ; y++) {
+            writeEscaped(chars[y], 0, chars[y].length, writer);
+            writer.write(System.lineSeparator());
+        }
+        writeFooter(writer);
+    }
+
+    /**
+     * Writes the HTML document to the given writer, copying the grid a row at a time.
+     * The writer is left open.
+     */
+    public void write(AsciiGrid grid, Writer writer) throws IOException {
+        if (grid.hasColors()) {
+            writeColored(grid, writer);
+            return;
+        }
+        writeHeader(grid.getWidth(), writer);
+        char[] row = new char[grid.getWidth()];
+        for(int y = 0 ; y < grid.getHeight() ; y++) {
+            grid.getRow(y, row, 0);
+            writeEscaped(row, 0, row.length, writer);
+            writer.write(System.lineSeparator());
+        }
+        writeFooter(writer);
+    }
+
+    /**
+     * Writes a grid with colors, opening a span only where the quantized color changes. Spans
+     * continue across line breaks.
+     */
+    private void writeColored(AsciiGrid grid, Writer writer) throws IOException {
+        writeHeader(grid.getWidth(), writer);
+        char[] row = new char[grid.getWidth()];
+        int spanColor = NO_COLOR;
+        for(int y = 0 ; y < grid.getHeight() ; y++) {
+            grid.getRow(y, row, 0);
+            int runStart = 0;
+            for (int x = 0; x < row.length; x++) {
+                int color = quantize(grid.getColor(y, x));
+                if (color == spanColor || (row[x] == ' ' && spanColor != NO_COLOR)) {
+                    continue;
+                }
+                writeEscaped(row, runStart, x, writer);
+                if (spanColor != NO_COLOR) {
+                    writer.write(SPAN_END);
+                }
+                writeSpanStart(color, writer);
+                spanColor = color;
+                runStart = x;
+            }
+            writeEscaped(row, runStart, row.length, writer);
+            writer.write(System.lineSeparator());
+        }
+        if (spanColor != NO_COLOR) {
+            writer.write(SPAN_END);
+        }
+        writeFooter(writer);
+    }
+
+    /**
+     * @return The color with 4 bits per channel, as 0xRGB.
+     */
+    private static int quantize(int rgb) {
+        int red = (rgb >> RED_SHIFT) & CHANNEL_MASK;
+        int green = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+        int blue = rgb & CHANNEL_MASK;
+        return quantizeChannel(red) << 8 | quantizeChannel(green) << 4 | quantizeChannel(blue);
+    }
+
+    private static int quantizeChannel(int value) {
+        return (value * QUANTIZED_MAX + CHANNEL_MASK / 2) / CHANNEL_MASK;
+    }
+
+    private static void writeSpanStart(int color, Writer writer) throws IOException {
+        writer.write(SPAN_START);
+        writer.write(HEX_DIGITS[color >> 8]);
+        writer.write(HEX_DIGITS[(color >> 4) & QUANTIZED_MAX]);
+        writer.write(HEX_DIGITS[color & QUANTIZED_MAX]);
+        writer.write(SPAN_START_END);
+    }
+
+    /**
+     * Writes the chars [start, end) of the row, escaping HTML special chars. Runs between special
+     * chars are written in one piece.
+     */
+    private static void writeEscaped(char[] row, int start, int end, Writer writer) throws IOException {
+        int runStart = start;
+        for (int x = start; x < end ; x++) {
+            String htmlRep;
+            switch(row[x]) {
+                case '<': htmlRep = "&lt;";  break;
+                case '>': htmlRep = "&gt;";  break;
+                case '&': htmlRep = "&amp;"; break;
+                default:  continue;
+            }
+            writer.write(row, runStart, x - runStart);
+            writer.write(htmlRep);
+            runStart = x + 1;
+        }
+        writer.write(row, runStart, end - runStart);
+    }
+
+    private void writeHeader(int columns, Writer writer) throws IOException {
+        writer.write(String.format(
+            "<!DOCTYPE html>\n"+
+            "<html>\n"+
+            "<head><meta charset=\"UTF-8\"></head>\n"+
+            "<body style=\""+
+                "\tCOLOR:#000000;"+
+                "\tTEXT-ALIGN:center;"+
+                "\tFONT-SIZE:1px;\">\n"+
+            "<p style=\""+
+                "\twhite-space:pre;"+
+                "\tFONT-FAMILY:%s;"+
+                "\tFONT-SIZE:%frem;"+
+                "\tLETTER-SPACING:0.15em;"+
+                "\tLINE-HEIGHT:%fem;\">\n",
+                fontName, BASE_FONT_SIZE/columns, BASE_LINE_SPACING));
+    }
+
+    private static void writeFooter(Writer writer) throws IOException {
+        writer.write(
+            "</p>\n"+
+            "</body>\n"+
+            "</html>\n");
+    }
 }
@@ -0,0 +1,155 @@
+package ascii_output;
+
+import image_char_matching.CharConverter;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Output a grid of chars to a PNG image, black glyphs on white, one square cell per char.
+ * <p>
+ * Every char is rendered once, with the font settings of {@link CharConverter}, into a glyph
+ * atlas. The image is then assembled by copying glyph rows from the atlas straight into the
+ * image's pixel array with {@link System#arraycopy}, instead of drawing text cell by cell.
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class PngAsciiOutput implements AsciiOutput {
+    private static final int WHITE = 0xFFFFFF;
+    private static final int BLACK = 0x000000;
+    private static final String FORMAT_NAME = "png";
+    // favours encoding speed over file size, PNG is lossless either way
+    private static final float COMPRESSION_QUALITY = 0.9f;
+    private static final int INITIAL_ATLAS_GLYPHS = 128;
+
+    private final String filename;
+    private final int glyphSize;
+    private final int glyphPixels;
+    // the pixels of every rendered glyph one after the other, glyphPixels each
+    private int[] atlas;
+    private final Map<Character, Integer> atlasSlots = new HashMap<>();
+
+    /**
+     * Constructs an output drawing every char at the matcher's glyph resolution.
+     */
+    public PngAsciiOutput(String filename) {
+        this(filename, CharConverter.DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * @param filename The PNG file to write.
+     * @param glyphSize The side length in pixels of every cell, smaller for thumbnails.
+     */
+    public PngAsciiOutput(String filename, int glyphSize) {
+        this.filename = filename;
+        this.glyphSize = glyphSize;
+        this.glyphPixels = glyphSize * glyphSize;
+        this.atlas = new int[INITIAL_ATLAS_GLYPHS * glyphPixels];
+    }
+
+    @Override
+    public void out(char[][] chars) {
+        int width = chars.length == 0 ? 0 : chars[0].length;
+        AsciiGrid grid = new AsciiGrid(width, chars.length, false);
+        for (int y = 0; y < chars.length; y++) {
+            for (int x = 0; x < width; x++) {
+                grid.set(y, x, chars[y][x]);
+            }
+        }
+        out(grid);
+    }
+
+    @Override
+    public void out(AsciiGrid grid) {
+        try {
+            write(render(grid), new File(filename));
+        } catch (IOException e) {
+            Logger.getGlobal().severe(String.format("Failed to write to \"%s\"", filename));
+        }
+    }
+
+    /**
+     * Draws the grid into a new image.
+     * @return An image of grid.getWidth() x grid.getHeight() cells.
+     */
+    public BufferedImage render(AsciiGrid grid) {
+        int columns = grid.getWidth();
+        int rows = grid.getHeight();
+        int imageWidth = columns * glyphSize;
+        BufferedImage image = new BufferedImage(Math.max(1, imageWidth), Math.max(1, rows * glyphSize),
+                BufferedImage.TYPE_INT_RGB);
+        int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        char[] row = new char[columns];
+        int[] slots = new int[columns];
+        for (int y = 0; y < rows; y++) {
+            grid.getRow(y, row, 0);
+            for (int x = 0; x < columns; x++) {
+                slots[x] = getAtlasOffset(row[x]);
+            }
+            int rowStart = y * glyphSize * imageWidth;
+            for (int glyphRow = 0; glyphRow < glyphSize; glyphRow++) {
+                int destination = rowStart + glyphRow * imageWidth;
+                int source = glyphRow * glyphSize;
+                for (int x = 0; x < columns; x++) {
+                    System.arraycopy(atlas, slots[x] + source, raster, destination, glyphSize);
+                    destination += glyphSize;
+                }
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Returns the index of the char's first pixel in the atlas, rendering it on first use.
+     */
+    private int getAtlasOffset(char c) {
+        Integer slot = atlasSlots.get(c);
+        if (slot != null) {
+            return slot * glyphPixels;
+        }
+        int offset = atlasSlots.size() * glyphPixels;
+        if (offset + glyphPixels > atlas.length) {
+            int[] grown = new int[atlas.length * 2];
+            System.arraycopy(atlas, 0, grown, 0, atlas.length);
+            atlas = grown;
+        }
+        boolean[][] glyph = CharConverter.convertToBoolArray(c, glyphSize);
+        for (int y = 0; y < glyphSize; y++) {
+            for (int x = 0; x < glyphSize; x++) {
+                atlas[offset + y * glyphSize + x] = glyph[y][x] ? WHITE : BLACK;
+            }
+        }
+        atlasSlots.put(c, atlasSlots.size());
+        return offset;
+    }
+
+    /**
+     * Encodes the image as PNG, with fast rather than maximal compression.
+     */
+    private static void write(BufferedImage image, File file) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(FORMAT_NAME).next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(COMPRESSION_QUALITY);
+        }
+        // an existing, larger file would otherwise keep its trailing bytes
+        file.delete();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
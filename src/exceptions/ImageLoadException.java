@@ -0,0 +1,13 @@
+package exceptions;
+
+/**
+ * This exception is thrown when an image to be loaded cannot be read or decoded.
+ * It extends RuntimeException, indicating that it is an unchecked exception.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class ImageLoadException extends RuntimeException {
+    public ImageLoadException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,96 @@
+package image;
+
+/**
+ * A grid of tile brightness values stored row-major in a single float array, so reading a whole
+ * grid touches one contiguous block instead of one array per row.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class BrightnessGrid {
+
+	private float[] values;
+	private int width;
+	private int height;
+
+	/**
+	 * Constructs a grid of the given dimensions with all values 0.
+	 * @param width The number of columns.
+	 * @param height The number of rows.
+	 */
+	public BrightnessGrid(int width, int height) {
+		this.values = new float[width * height];
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Changes the dimensions of the grid for reuse. The backing array is kept when it is large
+	 * enough, so reshaping to the same or a smaller size allocates nothing. The values are
+	 * undefined afterwards.
+	 * @param width The new number of columns.
+	 * @param height The new number of rows.
+	 */
+	public void reshape(int width, int height) {
+		if (values.length < width * height) {
+			values = new float[width * height];
+		}
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Reshapes this grid to the dimensions of another and copies its values.
+	 * @param other The grid to copy.
+	 */
+	public void copyFrom(BrightnessGrid other) {
+		reshape(other.width, other.height);
+		System.arraycopy(other.values, 0, values, 0, other.width * other.height);
+	}
+
+	/**
+	 * @return The number of columns.
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return The number of rows.
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return The brightness of the tile at the given row and column.
+	 */
+	public float get(int row, int col) {
+		return values[row * width + col];
+	}
+
+	/**
+	 * Sets the brightness of the tile at the given row and column.
+	 */
+	public void set(int row, int col, float value) {
+		values[row * width + col] = value;
+	}
+
+	/**
+	 * Returns the backing array, where the tile at (row, col) is at index row * width + col.
+	 * Writes to it are visible through the grid. The array may be longer than width * height
+	 * after {@link #reshape}.
+	 * @return The backing array.
+	 */
+	public float[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return A new grid with the same dimensions and values.
+	 */
+	public BrightnessGrid copy() {
+		BrightnessGrid copy = new BrightnessGrid(width, height);
+		copy.copyFrom(this);
+		return copy;
+	}
+}
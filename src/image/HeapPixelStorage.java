@@ -0,0 +1,38 @@
+package image;
+
+/**
+ * Pixels kept in a single int array on the heap, for images of up to 2^31 - 1 pixels.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class HeapPixelStorage implements PixelStorage {
+
+	private final int[] pixels;
+	private final int width;
+
+	/**
+	 * @param pixels The row-major pixels, owned by the storage from now on.
+	 * @param width The number of pixels in a row.
+	 */
+	HeapPixelStorage(int[] pixels, int width) {
+		this.pixels = pixels;
+		this.width = width;
+	}
+
+	@Override
+	public int get(long index) {
+		return pixels[(int) index];
+	}
+
+	@Override
+	public void getRow(int row, int start, int length, int[] dest) {
+		System.arraycopy(pixels, row * width + start, dest, 0, length);
+	}
+
+	/**
+	 * Does nothing, heap pixels are released by the garbage collector.
+	 */
+	@Override
+	public void close() {
+	}
+}
@@ -1,41 +1,144 @@
 package image;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Iterator;
 
 /**
  * A package-private class of the package image.
  * @author Dan Nirel
  */
-public class Image {
+public class Image implements AutoCloseable {
+    private static final int RGB_MASK = 0xFFFFFF;
+    // The most pixels decoded on the heap at once when decoding into off-heap storage
+    private static final int STRIP_PIXELS = 4 * 1024 * 1024;
+    private static final String UNSUPPORTED_FORMAT_MSG = "Unsupported or corrupt image format";
 
-    private final Color[][] pixelArray;
+    // packed 0xRRGGBB values, row-major
+    private final PixelStorage pixels;
     private final int width;
     private final int height;
 
     public Image(String filename) throws IOException {
-        BufferedImage im = ImageIO.read(new File(filename));
+        this(ImageIO.read(new File(filename)));
+    }
+
+    /**
+     * Decodes an image from a stream, e.g. an uploaded request body.
+     * The stream is read to its end but not closed.
+     */
+    public Image(InputStream in) throws IOException {
+        this(ImageIO.read(in));
+    }
+
+    private Image(BufferedImage im) throws IOException {
+        if (im == null) {
+            throw new IOException(UNSUPPORTED_FORMAT_MSG);
+        }
         width = im.getWidth();
         height = im.getHeight();
 
+        int[] rgb = im.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] &= RGB_MASK;
+        }
+        pixels = new HeapPixelStorage(rgb, width);
+    }
 
-        pixelArray = new Color[height][width];
+    public Image(Color[][] pixelArray, int width, int height) {
+        this.width = width;
+        this.height = height;
+        int[] rgb = new int[width * height];
         for (int i = 0; i < height; i++) {
             for (int j = 0; j < width; j++) {
-                pixelArray[i][j]=new Color(im.getRGB(j, i));
+                rgb[i * width + j] = pixelArray[i][j].getRGB() & RGB_MASK;
             }
         }
+        this.pixels = new HeapPixelStorage(rgb, width);
     }
 
-    public Image(Color[][] pixelArray, int width, int height) {
-        this.pixelArray = pixelArray;
+    private Image(PixelStorage pixels, int width, int height) {
+        this.pixels = pixels;
         this.width = width;
         this.height = height;
     }
 
+    /**
+     * Decodes an image into storage outside the Java heap, so it adds nothing to the heap the
+     * garbage collector scans once decoded. The image is decoded in strips of whole rows of at
+     * most {@value #STRIP_PIXELS} pixels, so the heap needed while decoding does not grow with the
+     * image, and images may have more than 2^31 - 1 pixels. Decoders that cannot seek to a row
+     * re-read the rows above every strip, so decoding takes longer the more strips there are.
+     * The image should be {@link #close() closed} when no longer used.
+     */
+    public static Image readOffHeap(String filename) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(new File(filename))) {
+            Iterator<ImageReader> readers = stream == null ? null : ImageIO.getImageReaders(stream);
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException(UNSUPPORTED_FORMAT_MSG);
+            }
+            ImageReader reader = readers.next();
+            try {
+                // not seek-forward-only, since every strip is read from the start of the stream
+                reader.setInput(stream, false, true);
+                return readStrips(reader);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static Image readStrips(ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int stripRows = Math.max(1, Math.min(height, STRIP_PIXELS / width));
+        OffHeapPixelStorage storage = OffHeapPixelStorage.allocate(width, height);
+        ImageReadParam param = reader.getDefaultReadParam();
+        int[] row = new int[width];
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+            param.setSourceRegion(new Rectangle(0, top, width, rows));
+            BufferedImage strip = reader.read(0, param);
+            // later strips are decoded into the first one's buffer
+            param.setDestination(strip);
+            for (int y = 0; y < rows; y++) {
+                strip.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    row[x] &= RGB_MASK;
+                }
+                storage.setRow(top + y, row);
+            }
+        }
+        return new Image(storage, width, height);
+    }
+
+    /**
+     * Maps a raw image file without decoding or copying it: width * height big-endian 32-bit
+     * 0xAARRGGBB pixels, row-major and without a header. Its size is bounded by the address space
+     * rather than the heap, and may exceed 2^31 - 1 pixels.
+     * The image should be {@link #close() closed} when no longer used.
+     */
+    public static Image mapRaw(String filename, int width, int height) throws IOException {
+        return new Image(OffHeapPixelStorage.map(Paths.get(filename), width, height), width, height);
+    }
+
+    /**
+     * Releases the pixel storage of an off-heap image, which must not be used afterwards.
+     * Does nothing for images on the heap.
+     */
+    @Override
+    public void close() {
+        pixels.close();
+    }
+
     public int getWidth() {
         return width;
     }
@@ -45,18 +148,35 @@ public class Image {
     }
 
     public Color getPixel(int x, int y) {
-        return pixelArray[x][y];
+        return new Color(pixels.get((long) x * width + y) & RGB_MASK);
+    }
+
+    /**
+     * Returns the pixel at the given row and column as a packed 0xRRGGBB value,
+     * without allocating a Color.
+     */
+    public int getRGB(int row, int col) {
+        return pixels.get((long) row * width + col) & RGB_MASK;
+    }
+
+    /**
+     * Copies a span of one row of packed pixels, for the kernels in this package. Only the low
+     * 24 bits of every pixel are meaningful.
+     * @param row The row to copy from.
+     * @param start The first column to copy.
+     * @param length The number of pixels to copy.
+     * @param dest The destination array, at least length long.
+     */
+    void getRow(int row, int start, int length, int[] dest) {
+        pixels.getRow(row, start, length, dest);
     }
 
     public void saveImage(String fileName){
-        // Initialize BufferedImage, assuming Color[][] is already properly populated.
-        BufferedImage bufferedImage = new BufferedImage(pixelArray[0].length, pixelArray.length,
-                BufferedImage.TYPE_INT_RGB);
-        // Set each pixel of the BufferedImage to the color from the Color[][].
-        for (int x = 0; x < pixelArray.length; x++) {
-            for (int y = 0; y < pixelArray[x].length; y++) {
-                bufferedImage.setRGB(y, x, pixelArray[x][y].getRGB());
-            }
+        BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.getRow(y, 0, width, row);
+            bufferedImage.setRGB(0, y, width, 1, row, 0, width);
         }
         File outputfile = new File(fileName+".jpeg");
         try {
@@ -1,120 +1,713 @@
 package image;
 
-import java.awt.*;
-import java.util.ArrayList;
-
+import java.util.Arrays;
 
+/**
+ * Splits an image into a grid of tiles and computes the mean gray grade of every tile.
+ * <p>
+ * The grid has exactly resolution columns spanning the image width, and as many rows as keep the
+ * tiles closest to square. Tile boundaries are fractional: a pixel straddling two tiles contributes
+ * to each in proportion to the area it covers. Every pixel is read once per grid, and no padded
+ * copy of the image is made.
+ * <p>
+ * Pixel luminance comes from per-channel lookup tables holding the weighted channel value in fixed
+ * point, so both luminance modes cost three table lookups and integer additions per pixel. In
+ * {@link LuminanceMode#LINEAR_LIGHT} the tables also decode sRGB to linear light, and only the
+ * tile means are encoded back.
+ * <p>
+ * A coarse preview of the grid can be computed first from every {@value #PREVIEW_ROW_STRIDE}th
+ * pixel row. The luminance of those rows is kept, and the next grid computed from every row, be it
+ * the gray grades, the sub-cells or the tile masks, reuses it instead of converting them again,
+ * so a preview followed by that grid costs about as much as the grid alone. The rows are dropped
+ * after that grid, and by the colors, which read the pixels themselves.
+ * <p>
+ * The mean color of every tile can be accumulated in the same pass as its gray grade, reading
+ * every pixel once for both. Channels are summed as integers, and the fractional weights of the
+ * pixels and pixel rows a tile boundary crosses are applied once per tile row and once per
+ * crossed pixel row, rather than per pixel.
+ * <p>
+ * A processor may cover a {@link Viewport} of the image instead of all of it, reading only the
+ * viewport's pixels. Given the image's {@link LuminanceSums}, it reads no pixels at all and
+ * computes every grid in time proportional to its number of tiles, unless the tiles are smaller
+ * than the table's blocks.
+ */
 public class ImageProcessor {
     private static final int RGB_MAX_VAL = 255;
     private static final double RED_PORTION_OF_GRAY = 0.2126;
     private static final double GREEN_PORTION_OF_GRAY = 0.7152;
     private static final double BLUE_PORTION_OF_GRAY = 0.0722;
+    private static final double MASK_WHITE_THRESHOLD = 0.5;
+    // A preview has this many times fewer columns than the full grid
+    private static final int PREVIEW_RESOLUTION_DIVISOR = 4;
+    // A preview reads only every this many pixel rows
+    private static final int PREVIEW_ROW_STRIDE = 4;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int RED_SHIFT = 16;
+    private static final int GREEN_SHIFT = 8;
+    private static final int CHANNEL_MASK = 0xFF;
+    // red, green and blue, summed per tile when colors are averaged too
+    private static final int COLOR_CHANNELS = 3;
+    // fixed point luminance of a white pixel
+    private static final int LUMINANCE_SCALE = 1 << 20;
+    // sRGB transfer function constants
+    private static final double SRGB_LINEAR_THRESHOLD = 0.04045;
+    private static final double LINEAR_SRGB_THRESHOLD = 0.0031308;
+    private static final double SRGB_LINEAR_SLOPE = 12.92;
+    private static final double SRGB_OFFSET = 0.055;
+    private static final double SRGB_GAMMA = 2.4;
+    // {red, green, blue} lookup tables from channel value to weighted fixed point luminance
+    private static final int[][] GAMMA_ENCODED_TABLES = buildLuminanceTables(false);
+    private static final int[][] LINEAR_LIGHT_TABLES = buildLuminanceTables(true);
     private static ImageProcessor instance = null;
 
     private final Image sourceImage;
+    private final Viewport viewport;
+    private final LuminanceSums luminanceSums;
     private final int resolution;
-    private final int tileSize;
-    Color[][] paddedImage;
-    ArrayList<ArrayList<Image>> tiles = new ArrayList<>();
+    private final int rows;
+    private final LuminanceMode luminanceMode;
+    private BrightnessGrid meanGrayGrades;
+    private BrightnessGrid previewGrayGrades;
+    private BrightnessGrid subCellGrayGrades;
+    private int[] meanColors;
+    // the luminance of the pixel rows read by the preview, kept for the full grid to reuse
+    private int[] previewLuminance;
+    private long[][] tileMasks;
+    private int tileMaskGridSize;
+
+    /**
+     * Creates a processor that is not shared through {@link #getInstance}, for callers that
+     * keep their own processors per image (e.g. several images rendered concurrently).
+     */
+    public ImageProcessor(Image sourceImage, int resolution) {
+        this(sourceImage, resolution, LuminanceMode.GAMMA_ENCODED);
+    }
 
-    private ImageProcessor(Image sourceImage, int resolution) {
+    /**
+     * Creates a processor like {@link #ImageProcessor(Image, int)} averaging in the given mode.
+     */
+    public ImageProcessor(Image sourceImage, int resolution, LuminanceMode luminanceMode) {
+        this(sourceImage, resolution, luminanceMode, Viewport.of(sourceImage), null);
+    }
+
+    /**
+     * Creates a processor like {@link #ImageProcessor(Image, int, LuminanceMode)} covering only
+     * the given viewport, which must lie inside the image.
+     * @param luminanceSums The image's summed-area table in the same mode, to compute the grids
+     *                      from instead of the pixels, or null.
+     */
+    public ImageProcessor(Image sourceImage, int resolution, LuminanceMode luminanceMode,
+                          Viewport viewport, LuminanceSums luminanceSums) {
         this.sourceImage = sourceImage;
+        this.viewport = viewport;
+        this.luminanceSums = luminanceSums;
         this.resolution = resolution;
-        pad();
-        this.tileSize = paddedImage[0].length / resolution;
+        this.rows = getRowCount(viewport, resolution);
+        this.luminanceMode = luminanceMode;
     }
 
     public static ImageProcessor getInstance(Image image, int resolution) {
+        return getInstance(image, resolution, LuminanceMode.GAMMA_ENCODED);
+    }
+
+    public static ImageProcessor getInstance(Image image, int resolution, LuminanceMode luminanceMode) {
         if (instance == null ||
-                instance.resolution != resolution) {
-            instance = new ImageProcessor(image, resolution);
+                instance.sourceImage != image ||
+                instance.resolution != resolution ||
+                instance.luminanceMode != luminanceMode) {
+            instance = new ImageProcessor(image, resolution, luminanceMode);
         }
         return instance;
     }
 
-    public static int nextPowerOfTwo(int n) {
-        if (n <= 0) return 1;
-        if ((n & (n - 1)) == 0) return n;
-        return Integer.highestOneBit(n) << 1;
+    /**
+     * Checks that the image can be split into the given number of columns, i.e. that every
+     * column is at least one pixel wide.
+     */
+    public static boolean isLegalResolution(Image image, int resolution) {
+        return isLegalResolution(Viewport.of(image), resolution);
     }
 
-    public static boolean isLegalResolution(Image image, int resolution) {
-        int newWidth = nextPowerOfTwo(image.getWidth());
-        int newHeight = nextPowerOfTwo(image.getHeight());
-        return resolution >= Math.max(1, newWidth/newHeight) && resolution <= newWidth;
+    /**
+     * Checks that the viewport can be split into the given number of columns, i.e. that every
+     * column is at least one pixel wide.
+     */
+    public static boolean isLegalResolution(Viewport viewport, int resolution) {
+        return resolution >= 1 && resolution <= viewport.getWidth();
     }
 
-    private void pad() {
-        int newWidth = nextPowerOfTwo(sourceImage.getWidth());
-        int newHeight = nextPowerOfTwo(sourceImage.getHeight());
-        paddedImage = new Color[newHeight][newWidth];
+    /**
+     * @return The number of tile rows for the given resolution, keeping tiles as close to square
+     * as possible.
+     */
+    public static int getRowCount(Image image, int resolution) {
+        return getRowCount(Viewport.of(image), resolution);
+    }
 
-        int horizontalPad = (newWidth - sourceImage.getWidth()) / 2;
-        int verticalPad = (newHeight - sourceImage.getHeight()) / 2;
+    /**
+     * @return The number of tile rows of the viewport for the given resolution, keeping tiles as
+     * close to square as possible.
+     */
+    public static int getRowCount(Viewport viewport, int resolution) {
+        return Math.max(1, (int) Math.round((double) viewport.getHeight() * resolution / viewport.getWidth()));
+    }
 
-        for (int i = 0; i < newHeight; i++) {
-            for (int j = 0; j < newWidth; j++) {
-                paddedImage[i][j] = Color.WHITE;
+    public double[][] getMeanGrayGrades() {
+        BrightnessGrid grid = getMeanGrayGradeGrid();
+        double[][] meanGrayGrades = new double[grid.getHeight()][grid.getWidth()];
+        for (int i = 0; i < grid.getHeight(); i++) {
+            for (int j = 0; j < grid.getWidth(); j++) {
+                meanGrayGrades[i][j] = grid.get(i, j);
             }
         }
+        return meanGrayGrades;
+    }
 
-        for (int i = 0; i < sourceImage.getHeight(); i++) {
-            for (int j = 0; j < sourceImage.getWidth(); j++) {
-                paddedImage[i + verticalPad][j + horizontalPad] = sourceImage.getPixel(i, j);
-            }
+    /**
+     * Returns the mean gray grade of every tile as a flat grid. The grid is computed once per
+     * processor and shared between calls, so callers must not modify it.
+     * @return The mean gray grades, one per tile.
+     */
+    public synchronized BrightnessGrid getMeanGrayGradeGrid() {
+        if (meanGrayGrades != null) {
+            return meanGrayGrades;
+        }
+        BrightnessGrid grid = new BrightnessGrid(resolution, rows);
+        resample(resolution, rows, grid.getValues(), 1, null);
+        meanGrayGrades = grid;
+        return grid;
+    }
+
+    /**
+     * Returns the mean color of every tile, packed as 0xRRGGBB in the row-major layout of
+     * {@link #getMeanGrayGradeGrid()}. Channels are averaged as encoded, whatever the luminance
+     * mode, and always from the pixels, since the summed-area table holds only luminance. Unless
+     * the gray grades were computed before, they are computed in the same pass over the pixels.
+     * The colors are computed once per processor and shared between calls, so callers must not
+     * modify them.
+     * @return The mean colors, one per tile.
+     */
+    public synchronized int[] getMeanColors() {
+        if (meanColors != null) {
+            return meanColors;
+        }
+        BrightnessGrid grid = new BrightnessGrid(resolution, rows);
+        int[] colors = new int[resolution * rows];
+        resample(resolution, rows, grid.getValues(), 1, colors);
+        if (meanGrayGrades == null) {
+            meanGrayGrades = grid;
+        }
+        meanColors = colors;
+        return colors;
+    }
+
+    /**
+     * Returns a coarse preview of {@link #getMeanGrayGradeGrid()}, with a quarter of the columns
+     * (at least one) and computed from a quarter of the pixel rows, for showing something before
+     * the full grid is ready. Like the full grid it is shared, so callers must not modify it.
+     * @return The mean gray grades of the preview tiles.
+     */
+    public synchronized BrightnessGrid getPreviewGrayGradeGrid() {
+        if (previewGrayGrades != null) {
+            return previewGrayGrades;
+        }
+        int columns = Math.max(1, resolution / PREVIEW_RESOLUTION_DIVISOR);
+        int previewRows = getRowCount(viewport, columns);
+        BrightnessGrid grid = new BrightnessGrid(columns, previewRows);
+        long sampledPixels = (long) (viewport.getHeight() + PREVIEW_ROW_STRIDE - 1) /
+                PREVIEW_ROW_STRIDE * viewport.getWidth();
+        // kept only for a grid still to be computed, and rows of images too large for one array
+        // are converted again instead
+        if (!hasFullGrid() && luminanceSums == null && sampledPixels <= MAX_ARRAY_LENGTH) {
+            previewLuminance = new int[(int) sampledPixels];
+        }
+        resample(columns, previewRows, grid.getValues(), PREVIEW_ROW_STRIDE, null);
+        previewGrayGrades = grid;
+        return grid;
+    }
+
+    /**
+     * @return Whether a grid was computed from every pixel row, after which the preview's rows
+     * are no longer kept.
+     */
+    private boolean hasFullGrid() {
+        return meanGrayGrades != null || meanColors != null || subCellGrayGrades != null || tileMasks != null;
+    }
+
+    /**
+     * Splits every tile into a grid of sub-cells and returns the mean gray grade of each, e.g. to
+     * draw each tile as a pattern of dots. The grid of the last requested split is shared between
+     * calls, so callers must not modify it.
+     * @param subColumns The number of sub-cell columns per tile.
+     * @param subRows The number of sub-cell rows per tile.
+     * @return A grid of resolution * subColumns columns and getRowCount() * subRows rows.
+     */
+    public synchronized BrightnessGrid getSubCellGrayGradeGrid(int subColumns, int subRows) {
+        int columns = resolution * subColumns;
+        int cellRows = rows * subRows;
+        if (subCellGrayGrades != null && subCellGrayGrades.getWidth() == columns &&
+                subCellGrayGrades.getHeight() == cellRows) {
+            return subCellGrayGrades;
         }
+        BrightnessGrid grid = new BrightnessGrid(columns, cellRows);
+        resample(columns, cellRows, grid.getValues(), 1, null);
+        subCellGrayGrades = grid;
+        return grid;
     }
 
-    private void splitIntoTiles() {
-        int height = paddedImage.length;
-        int width = paddedImage[0].length;
+    /**
+     * @return The number of bytes held by the grids and masks this processor has computed so far,
+     * for callers that bound the memory of cached processors.
+     */
+    public synchronized long getRetainedBytes() {
+        long bytes = 0;
+        if (meanGrayGrades != null) {
+            bytes += (long) meanGrayGrades.getValues().length * Float.BYTES;
+        }
+        if (previewGrayGrades != null) {
+            bytes += (long) previewGrayGrades.getValues().length * Float.BYTES;
+        }
+        if (subCellGrayGrades != null) {
+            bytes += (long) subCellGrayGrades.getValues().length * Float.BYTES;
+        }
+        if (meanColors != null) {
+            bytes += (long) meanColors.length * Integer.BYTES;
+        }
+        if (previewLuminance != null) {
+            bytes += (long) previewLuminance.length * Integer.BYTES;
+        }
+        if (tileMasks != null) {
+            bytes += (long) tileMasks.length * tileMasks[0].length * Long.BYTES;
+        }
+        return bytes;
+    }
 
-        int tilesVertically = height / tileSize;
-        int tilesHorizontally = width / tileSize;
+    /**
+     * Binarizes every tile into a gridSize x gridSize bit mask, for matching tiles against glyph
+     * shapes. Each mask cell is the mean gray grade of the part of the tile it covers, and its bit
+     * is set when that is at least {@value #MASK_WHITE_THRESHOLD}, i.e. white. Cells are never
+     * finer than the image's pixels: when a tile is narrower than the grid, neighboring cells
+     * repeat the same pixel.
+     * @param gridSize The mask side length in cells, gridSize * gridSize must be a multiple of 64.
+     * @return For every row of tiles, the masks of its tiles one after the other. Cell (y, x) of a
+     * mask is bit (y * gridSize + x) % 64 of its word (y * gridSize + x) / 64. The masks of the
+     * last requested grid size are shared between calls, so callers must not modify them.
+     */
+    public synchronized long[][] getTileMasks(int gridSize) {
+        if (tileMasks != null && tileMaskGridSize == gridSize) {
+            return tileMasks;
+        }
+        int cellColumns = resolution * gridSize;
+        int cellRows = rows * gridSize;
+        int fineColumns = Math.min(cellColumns, viewport.getWidth());
+        int fineRows = Math.min(cellRows, viewport.getHeight());
+        float[] fine = new float[fineColumns * fineRows];
+        resample(fineColumns, fineRows, fine, 1, null);
 
-        for (int row = 0; row < tilesVertically; row++) {
-            tiles.add(new ArrayList<>());
-            for (int col = 0; col < tilesHorizontally; col++) {
-                Color[][] tile = new Color[tileSize][tileSize];
-                int startRow = row * tileSize;
-                int startCol = col * tileSize;
+        int words = gridSize * gridSize / Long.SIZE;
+        long[][] masks = new long[rows][resolution * words];
+        for (int cellRow = 0; cellRow < cellRows; cellRow++) {
+            int fineRow = (int) ((long) cellRow * fineRows / cellRows);
+            long[] rowMasks = masks[cellRow / gridSize];
+            int y = cellRow % gridSize;
+            for (int cellColumn = 0; cellColumn < cellColumns; cellColumn++) {
+                int fineColumn = (int) ((long) cellColumn * fineColumns / cellColumns);
+                if (fine[fineRow * fineColumns + fineColumn] >= MASK_WHITE_THRESHOLD) {
+                    int bit = y * gridSize + cellColumn % gridSize;
+                    rowMasks[cellColumn / gridSize * words + bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+                }
+            }
+        }
+        tileMasks = masks;
+        tileMaskGridSize = gridSize;
+        return masks;
+    }
 
-                for (int i = 0; i < tileSize; i++) {
-                    for (int j = 0; j < tileSize; j++) {
-                        tile[i][j] = paddedImage[startRow + i][startCol + j];
-                    }
+    /**
+     * Averages the gray grade of the viewport over a grid of equal rectangles, weighting every
+     * pixel by the area it shares with each rectangle.
+     * @param columns The number of grid columns.
+     * @param rows The number of grid rows.
+     * @param means Receives the mean of rectangle (r, c) at index r * columns + c, between 0 and 1.
+     * @param rowStride Reads only every rowStride pixel rows, each standing for the rows after it.
+     * @param colors Receives the mean color of rectangle (r, c) at index r * columns + c packed as
+     *               0xRRGGBB, or null to average only the gray grade.
+     */
+    private void resample(int columns, int rows, float[] means, int rowStride, int[] colors) {
+        int width = viewport.getWidth();
+        if (colors == null && luminanceSums != null && (double) width / columns >= luminanceSums.getBlockSize() &&
+                (double) viewport.getHeight() / rows >= luminanceSums.getBlockSize()) {
+            resampleFromSums(columns, rows, means);
+            return;
+        }
+        int sampledHeight = (viewport.getHeight() + rowStride - 1) / rowStride;
+        double[] columnBounds = getBounds(width, columns);
+        double[] rowBounds = getBounds(sampledHeight, rows);
+
+        int[] luminanceRow = new int[width];
+        double[] columnSums = new double[columns];
+        double[] sums = new double[columns * rows];
+        // the channel sums, only when colors are averaged too
+        TileColorSums colorSums = colors == null ? null : new TileColorSums(columnBounds, rows);
+        int[][] tables = getLuminanceTables(luminanceMode);
+        int firstRow = 0;
+        for (int y = 0; y < sampledHeight; y++) {
+            // a pixel row can straddle several grid rows when the grid is finer than the image
+            while (rowBounds[firstRow + 1] <= y) {
+                firstRow++;
+            }
+            boolean wholeRow = rowBounds[firstRow] <= y && y + 1 <= rowBounds[firstRow + 1];
+            if (colors == null) {
+                getLuminanceRow(y * rowStride, luminanceRow);
+                for (int c = 0; c < columns; c++) {
+                    columnSums[c] = getWeightedSum(luminanceRow, columnBounds[c], columnBounds[c + 1]);
+                }
+            } else {
+                // the row holds the pixels, converted to luminance while summing the channels
+                sourceImage.getRow(viewport.getY() + y * rowStride, viewport.getX(), width, luminanceRow);
+                colorSums.addRow(luminanceRow, tables, wholeRow ? firstRow : -1, columnSums);
+            }
+
+            for (int r = firstRow; r < rows && rowBounds[r] < y + 1; r++) {
+                double weight = Math.min(y + 1, rowBounds[r + 1]) - Math.max(y, rowBounds[r]);
+                int offset = r * columns;
+                for (int c = 0; c < columns; c++) {
+                    sums[offset + c] += columnSums[c] * weight;
+                }
+                if (colors != null && !wholeRow) {
+                    colorSums.addCrossedRow(r, weight);
                 }
-                tiles.get(row).add(new Image(tile, tileSize, tileSize));
             }
         }
+
+        double area = (double) width / columns * sampledHeight / rows * LUMINANCE_SCALE;
+        for (int i = 0; i < sums.length; i++) {
+            means[i] = toGrayGrade(sums[i] / area);
+        }
+        if (colors != null) {
+            colorSums.getMeans((double) width / columns * sampledHeight / rows, colors);
+        }
+        if (rowStride == 1) {
+            // every row the preview kept was read, reused or not
+            previewLuminance = null;
+        }
     }
 
-    private double getMeanGrayGrade(Image image) {
-        double meanGrade = 0;
-        for (int i = 0; i < image.getHeight(); i++) {
-            for (int j = 0; j < image.getWidth(); j++) {
-                Color pixel = image.getPixel(i, j);
-                double greyGradeOfPixel =
-                        pixel.getRed() * RED_PORTION_OF_GRAY +
-                        pixel.getGreen() * GREEN_PORTION_OF_GRAY +
-                        pixel.getBlue() * BLUE_PORTION_OF_GRAY;
-                meanGrade +=  greyGradeOfPixel;
+    /**
+     * Like {@link #resample} at full row resolution, but looks the sum of every rectangle up in
+     * the summed-area table instead of reading pixels.
+     */
+    private void resampleFromSums(int columns, int rows, float[] means) {
+        double[] columnBounds = getBounds(viewport.getWidth(), columns);
+        double[] rowBounds = getBounds(viewport.getHeight(), rows);
+        double area = (double) viewport.getWidth() / columns * viewport.getHeight() / rows * LUMINANCE_SCALE;
+        for (int r = 0; r < rows; r++) {
+            double top = viewport.getY() + rowBounds[r];
+            double bottom = viewport.getY() + rowBounds[r + 1];
+            for (int c = 0; c < columns; c++) {
+                double sum = luminanceSums.getSum(viewport.getX() + columnBounds[c], top,
+                        viewport.getX() + columnBounds[c + 1], bottom);
+                means[r * columns + c] = toGrayGrade(sum / area);
             }
         }
-        return meanGrade/(image.getHeight() * image.getWidth() * RGB_MAX_VAL);
     }
 
-    public double[][] getMeanGrayGrades() {
-        if (tiles.isEmpty()) {
-            splitIntoTiles();
+    /**
+     * @return The gray grade of a mean luminance, encoded back to sRGB in linear mode.
+     */
+    private float toGrayGrade(double mean) {
+        return (float) (luminanceMode == LuminanceMode.LINEAR_LIGHT ? linearToSrgb(mean) : mean);
+    }
+
+    /**
+     * Computes the fixed point luminance of every pixel in a row of the viewport, reusing the
+     * rows kept by the preview and keeping the rows it reads while it is being computed.
+     * @param y The pixel row, relative to the viewport.
+     * @param luminanceRow Receives the luminance of every pixel in the row.
+     */
+    private void getLuminanceRow(int y, int[] luminanceRow) {
+        int width = luminanceRow.length;
+        boolean previewRow = previewLuminance != null && y % PREVIEW_ROW_STRIDE == 0;
+        int previewStart = y / PREVIEW_ROW_STRIDE * width;
+        if (previewRow && previewGrayGrades != null) {
+            System.arraycopy(previewLuminance, previewStart, luminanceRow, 0, width);
+            return;
         }
-        double[][] meanGrayGrades = new double[tiles.size()][tiles.get(0).size()];
-        for (int i = 0; i < tiles.size(); i++) {
-            for (int j = 0; j < tiles.get(i).size(); j++) {
-                meanGrayGrades[i][j] = getMeanGrayGrade(tiles.get(i).get(j));
+
+        // read the pixels straight from the image's storage, then convert them in place
+        sourceImage.getRow(viewport.getY() + y, viewport.getX(), width, luminanceRow);
+        toLuminance(luminanceRow, width, luminanceMode);
+        if (previewRow) {
+            System.arraycopy(luminanceRow, 0, previewLuminance, previewStart, width);
+        }
+    }
+
+    /**
+     * Converts packed pixels to fixed point luminance in place, {@value #LUMINANCE_SCALE} being
+     * white.
+     * @param row The pixels, receiving their luminance.
+     * @param length The number of pixels to convert.
+     * @param luminanceMode The space of the luminance.
+     */
+    static void toLuminance(int[] row, int length, LuminanceMode luminanceMode) {
+        int[][] tables = getLuminanceTables(luminanceMode);
+        int[] redTable = tables[0];
+        int[] greenTable = tables[1];
+        int[] blueTable = tables[2];
+        for (int x = 0; x < length; x++) {
+            int rgb = row[x];
+            row[x] = redTable[(rgb >> RED_SHIFT) & CHANNEL_MASK] +
+                    greenTable[(rgb >> GREEN_SHIFT) & CHANNEL_MASK] +
+                    blueTable[rgb & CHANNEL_MASK];
+        }
+    }
+
+    private static int[][] getLuminanceTables(LuminanceMode luminanceMode) {
+        return luminanceMode == LuminanceMode.LINEAR_LIGHT ? LINEAR_LIGHT_TABLES : GAMMA_ENCODED_TABLES;
+    }
+
+    /**
+     * @return The boundaries of count equal spans over size pixels, count + 1 values from 0 to size.
+     */
+    private static double[] getBounds(int size, int count) {
+        double[] bounds = new double[count + 1];
+        for (int i = 0; i <= count; i++) {
+            bounds[i] = (double) ((long) i * size) / count;
+        }
+        return bounds;
+    }
+
+    /**
+     * @return The sum of the values over the span [start, end), where the first and last values
+     * are weighted by the fraction of their pixel inside the span. Whole pixels are summed as
+     * integers.
+     */
+    private static double getWeightedSum(int[] values, double start, double end) {
+        int first = (int) start;
+        int last = Math.min((int) Math.ceil(end), values.length) - 1;
+        if (first >= last) {
+            return values[first] * (end - start);
+        }
+        long interior = 0;
+        for (int i = first + 1; i < last; i++) {
+            interior += values[i];
+        }
+        return interior + values[first] * (first + 1 - start) + values[last] * (end - last);
+    }
+
+    /**
+     * Builds the per-channel luminance tables. The blue table absorbs the rounding of the other
+     * two, so a gray pixel (v, v, v) maps exactly to its rounded fixed point value and white to
+     * exactly {@value #LUMINANCE_SCALE}.
+     * @param linear Whether the tables decode sRGB to linear light.
+     * @return The red, green and blue tables.
+     */
+    private static int[][] buildLuminanceTables(boolean linear) {
+        int[] red = new int[CHANNEL_MASK + 1];
+        int[] green = new int[CHANNEL_MASK + 1];
+        int[] blue = new int[CHANNEL_MASK + 1];
+        for (int v = 0; v <= CHANNEL_MASK; v++) {
+            double value = (double) v / RGB_MAX_VAL;
+            if (linear) {
+                value = srgbToLinear(value);
             }
+            red[v] = (int) Math.round(value * RED_PORTION_OF_GRAY * LUMINANCE_SCALE);
+            green[v] = (int) Math.round(value * GREEN_PORTION_OF_GRAY * LUMINANCE_SCALE);
+            double gray = value * (RED_PORTION_OF_GRAY + GREEN_PORTION_OF_GRAY + BLUE_PORTION_OF_GRAY);
+            blue[v] = (int) Math.round(gray * LUMINANCE_SCALE) - red[v] - green[v];
         }
+        return new int[][]{red, green, blue};
+    }
 
-        return meanGrayGrades;
+    private static double srgbToLinear(double value) {
+        return value <= SRGB_LINEAR_THRESHOLD ? value / SRGB_LINEAR_SLOPE :
+                Math.pow((value + SRGB_OFFSET) / (1 + SRGB_OFFSET), SRGB_GAMMA);
+    }
+
+    private static double linearToSrgb(double value) {
+        return value <= LINEAR_SRGB_THRESHOLD ? value * SRGB_LINEAR_SLOPE :
+                (1 + SRGB_OFFSET) * Math.pow(value, 1 / SRGB_GAMMA) - SRGB_OFFSET;
+    }
+
+    /**
+     * The red, green and blue sums of a grid of tiles, accumulated one pixel row at a time along
+     * with the weighted luminance sums of {@link #getWeightedSum}. Tiles must be at least a pixel
+     * wide and high, so every pixel is crossed by at most one column boundary.
+     * <p>
+     * Every column boundary crosses one pixel, its boundary pixel, which it splits between the
+     * tiles on its two sides. Along a pixel row, the whole pixels of a tile and its left boundary
+     * pixel are summed into longs, and the split of the boundary pixels is applied once per tile
+     * row. A pixel row that a row boundary crosses is summed the same way on its own, then added
+     * to the two tile rows it is split between with their weights.
+     */
+    private static final class TileColorSums {
+        // per column, the sums of its whole pixels and then of its boundary pixels
+        private static final int SUMS_PER_COLUMN = 2 * COLOR_CHANNELS;
+
+        private final int columns;
+        private final double[] columnBounds;
+        // the shares of every column's own boundary pixel and of the next one inside the column
+        private final double[] boundaryWeights;
+        private final double[] nextBoundaryWeights;
+        // the sums of the tile row being summed, and of a pixel row a row boundary crosses, with
+        // a last column of zeros standing for the boundary pixel after the last column
+        private final long[] tileRowSums;
+        private final long[] crossedRowSums;
+        // the split sums of the last pixel row a row boundary crossed
+        private final double[] crossedRowColors;
+        private final double[] colorSums;
+        // the tile row tileRowSums belongs to, -1 if none
+        private int tileRow = -1;
+
+        TileColorSums(double[] columnBounds, int rows) {
+            this.columns = columnBounds.length - 1;
+            this.columnBounds = columnBounds;
+            this.boundaryWeights = new double[columns];
+            this.nextBoundaryWeights = new double[columns];
+            for (int c = 0; c < columns; c++) {
+                boundaryWeights[c] = (int) columnBounds[c] + 1 - columnBounds[c];
+                if (c > 0) {
+                    nextBoundaryWeights[c - 1] = 1 - boundaryWeights[c];
+                }
+            }
+            this.tileRowSums = new long[(columns + 1) * SUMS_PER_COLUMN];
+            this.crossedRowSums = new long[(columns + 1) * SUMS_PER_COLUMN];
+            this.crossedRowColors = new double[columns * COLOR_CHANNELS];
+            this.colorSums = new double[columns * rows * COLOR_CHANNELS];
+        }
+
+        /**
+         * Sums the channels of a pixel row, and computes the luminance of each column exactly
+         * like {@link #getWeightedSum} over the converted pixels.
+         * @param pixels The packed pixels of the row.
+         * @param tables The luminance tables.
+         * @param wholeTileRow The tile row the pixel row lies wholly inside, or -1 if a row
+         *                     boundary crosses it, in which case {@link #addCrossedRow} adds it.
+         * @param columnSums Receives the weighted luminance sum of every column.
+         */
+        void addRow(int[] pixels, int[][] tables, int wholeTileRow, double[] columnSums) {
+            long[] sums;
+            if (wholeTileRow < 0) {
+                sums = crossedRowSums;
+            } else {
+                if (wholeTileRow != tileRow) {
+                    flushTileRow();
+                    tileRow = wholeTileRow;
+                }
+                sums = tileRowSums;
+            }
+            int[] redTable = tables[0];
+            int[] greenTable = tables[1];
+            int[] blueTable = tables[2];
+            double[] bounds = columnBounds;
+            for (int c = 0, offset = 0; c < columns; c++, offset += SUMS_PER_COLUMN) {
+                double start = bounds[c];
+                double end = bounds[c + 1];
+                int first = (int) start;
+                int last = Math.min((int) Math.ceil(end), pixels.length) - 1;
+
+                // the first pixel is the column's boundary pixel
+                int firstRgb = pixels[first];
+                int firstRed = (firstRgb >> RED_SHIFT) & CHANNEL_MASK;
+                int firstGreen = (firstRgb >> GREEN_SHIFT) & CHANNEL_MASK;
+                int firstBlue = firstRgb & CHANNEL_MASK;
+                sums[offset + COLOR_CHANNELS] += firstRed;
+                sums[offset + COLOR_CHANNELS + 1] += firstGreen;
+                sums[offset + COLOR_CHANNELS + 2] += firstBlue;
+                int firstLuminance = redTable[firstRed] + greenTable[firstGreen] + blueTable[firstBlue];
+                if (first >= last) {
+                    columnSums[c] = firstLuminance * (end - start);
+                    continue;
+                }
+
+                long luminance = 0;
+                long red = 0;
+                long green = 0;
+                long blue = 0;
+                for (int x = first + 1; x < last; x++) {
+                    int rgb = pixels[x];
+                    int r = (rgb >> RED_SHIFT) & CHANNEL_MASK;
+                    int g = (rgb >> GREEN_SHIFT) & CHANNEL_MASK;
+                    int b = rgb & CHANNEL_MASK;
+                    luminance += redTable[r] + greenTable[g] + blueTable[b];
+                    red += r;
+                    green += g;
+                    blue += b;
+                }
+                int lastRgb = pixels[last];
+                int lastRed = (lastRgb >> RED_SHIFT) & CHANNEL_MASK;
+                int lastGreen = (lastRgb >> GREEN_SHIFT) & CHANNEL_MASK;
+                int lastBlue = lastRgb & CHANNEL_MASK;
+                int lastLuminance = redTable[lastRed] + greenTable[lastGreen] + blueTable[lastBlue];
+                double lastWeight = end - last;
+                // a last pixel the end crosses is the next column's boundary pixel
+                if (lastWeight == 1) {
+                    red += lastRed;
+                    green += lastGreen;
+                    blue += lastBlue;
+                }
+                sums[offset] += red;
+                sums[offset + 1] += green;
+                sums[offset + 2] += blue;
+                columnSums[c] = luminance + firstLuminance * (first + 1 - start) + lastLuminance * lastWeight;
+            }
+            if (wholeTileRow < 0) {
+                Arrays.fill(crossedRowColors, 0);
+                split(crossedRowSums, crossedRowColors, 0);
+            }
+        }
+
+        /**
+         * Adds the pixel row just summed, crossed by a row boundary, to a tile row it overlaps.
+         */
+        void addCrossedRow(int row, double weight) {
+            int offset = row * columns * COLOR_CHANNELS;
+            for (int i = 0; i < crossedRowColors.length; i++) {
+                colorSums[offset + i] += crossedRowColors[i] * weight;
+            }
+        }
+
+        /**
+         * Computes the mean colors of all tiles, once every pixel row was summed.
+         * @param pixelArea The number of pixels in a tile.
+         * @param colors Receives the mean colors, packed as 0xRRGGBB.
+         */
+        void getMeans(double pixelArea, int[] colors) {
+            flushTileRow();
+            for (int i = 0; i < colors.length; i++) {
+                int offset = i * COLOR_CHANNELS;
+                colors[i] = toChannel(colorSums[offset] / pixelArea) << RED_SHIFT |
+                        toChannel(colorSums[offset + 1] / pixelArea) << GREEN_SHIFT |
+                        toChannel(colorSums[offset + 2] / pixelArea);
+            }
+        }
+
+        private void flushTileRow() {
+            if (tileRow >= 0) {
+                split(tileRowSums, colorSums, tileRow * columns * COLOR_CHANNELS);
+            }
+        }
+
+        /**
+         * Adds summed pixels to the colors of a tile row, splitting every boundary pixel between
+         * the two columns it lies in, and clears the sums.
+         */
+        private void split(long[] sums, double[] colors, int colorOffset) {
+            for (int c = 0, offset = 0; c < columns; c++, offset += SUMS_PER_COLUMN) {
+                double inside = boundaryWeights[c];
+                double next = nextBoundaryWeights[c];
+                for (int channel = 0; channel < COLOR_CHANNELS; channel++) {
+                    int boundary = offset + COLOR_CHANNELS + channel;
+                    colors[colorOffset++] += sums[offset + channel] + sums[boundary] * inside +
+                            sums[boundary + SUMS_PER_COLUMN] * next;
+                    sums[offset + channel] = 0;
+                    sums[boundary] = 0;
+                }
+            }
+        }
+
+        private static int toChannel(double mean) {
+            return Math.max(0, Math.min(RGB_MAX_VAL, (int) Math.round(mean)));
+        }
     }
 }
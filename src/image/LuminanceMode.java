@@ -0,0 +1,17 @@
+package image;
+
+
+/**
+ * This enum determines in which space the ImageProcessor averages pixel luminance.
+ * GAMMA_ENCODED averages the sRGB-encoded values directly,
+ * LINEAR_LIGHT decodes them to linear light, averages, and encodes the tile mean back to sRGB.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public enum LuminanceMode {
+	/** Averages gamma-encoded values, the classic and slightly darkening approach. */
+	GAMMA_ENCODED,
+
+	/** Averages physical light, so fine black and white detail keeps its perceived brightness. */
+	LINEAR_LIGHT
+}
@@ -0,0 +1,125 @@
+package image;
+
+/**
+ * A summed-area table of an image's fixed point luminance, so the total luminance of any
+ * rectangle costs four lookups whatever its size. Once built, a grid of tile means over any
+ * viewport costs a constant per tile rather than a read of every pixel the viewport covers.
+ * <p>
+ * A table over every pixel takes 8 bytes per pixel, so for large images it is kept over square
+ * blocks of pixels instead, the smallest power of two on a side that keeps it within the given
+ * budget. The sums are exact at block corners and interpolated in between, as if every block
+ * were uniform, so rectangles much larger than a block are summed almost exactly. Building the
+ * table reads every pixel once.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public final class LuminanceSums {
+
+	private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+	private final int imageWidth;
+	private final int imageHeight;
+	private final int blockSize;
+	private final int columns;
+	private final int rows;
+	// sums[r * (columns + 1) + c] is the luminance of the pixels above and left of block corner (r, c)
+	private final long[] sums;
+
+	private LuminanceSums(Image image, int blockSize) {
+		this.imageWidth = image.getWidth();
+		this.imageHeight = image.getHeight();
+		this.blockSize = blockSize;
+		this.columns = (imageWidth + blockSize - 1) / blockSize;
+		this.rows = (imageHeight + blockSize - 1) / blockSize;
+		this.sums = new long[(columns + 1) * (rows + 1)];
+	}
+
+	/**
+	 * Builds the table of the given image, reading every pixel once.
+	 * @param image The image.
+	 * @param luminanceMode The space luminance is summed in.
+	 * @param maxBytes The number of bytes the table may take. Blocks grow until it fits.
+	 * @return The table.
+	 */
+	public static LuminanceSums build(Image image, LuminanceMode luminanceMode, long maxBytes) {
+		int blockSize = 1;
+		while (getTableLength(image, blockSize) * Long.BYTES > maxBytes ||
+				getTableLength(image, blockSize) > MAX_ARRAY_LENGTH) {
+			blockSize *= 2;
+		}
+		LuminanceSums table = new LuminanceSums(image, blockSize);
+		table.fill(image, luminanceMode);
+		return table;
+	}
+
+	/**
+	 * @return The side of the square blocks the table is kept over, in pixels.
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * @return The number of bytes held by the table.
+	 */
+	public long getRetainedBytes() {
+		return (long) sums.length * Long.BYTES;
+	}
+
+	/**
+	 * Returns the total fixed point luminance of a rectangle in pixel coordinates, where a pixel
+	 * partly inside the rectangle contributes in proportion to the area inside.
+	 */
+	double getSum(double x0, double y0, double x1, double y1) {
+		return getSum(x1, y1) - getSum(x0, y1) - getSum(x1, y0) + getSum(x0, y0);
+	}
+
+	/**
+	 * @return The luminance of the rectangle from the image's top-left corner to (x, y).
+	 */
+	private double getSum(double x, double y) {
+		int column = Math.min((int) (x / blockSize), columns - 1);
+		int row = Math.min((int) (y / blockSize), rows - 1);
+		double left = (double) column * blockSize;
+		double top = (double) row * blockSize;
+		// edge blocks may be narrower than the others
+		double fx = (x - left) / (Math.min(left + blockSize, imageWidth) - left);
+		double fy = (y - top) / (Math.min(top + blockSize, imageHeight) - top);
+
+		int stride = columns + 1;
+		int corner = row * stride + column;
+		double upper = sums[corner] + fx * (sums[corner + 1] - sums[corner]);
+		double lower = sums[corner + stride] + fx * (sums[corner + stride + 1] - sums[corner + stride]);
+		return upper + fy * (lower - upper);
+	}
+
+	private void fill(Image image, LuminanceMode luminanceMode) {
+		int stride = columns + 1;
+		int[] luminanceRow = new int[imageWidth];
+		long[] blockRow = new long[columns];
+		for (int y = 0; y < imageHeight; y++) {
+			image.getRow(y, 0, imageWidth, luminanceRow);
+			ImageProcessor.toLuminance(luminanceRow, imageWidth, luminanceMode);
+			for (int x = 0; x < imageWidth; x++) {
+				blockRow[x / blockSize] += luminanceRow[x];
+			}
+			if ((y + 1) % blockSize != 0 && y + 1 != imageHeight) {
+				continue;
+			}
+			// close a row of blocks, accumulating it onto the corner row above
+			int row = y / blockSize + 1;
+			long rowSum = 0;
+			for (int c = 0; c < columns; c++) {
+				rowSum += blockRow[c];
+				sums[row * stride + c + 1] = sums[(row - 1) * stride + c + 1] + rowSum;
+				blockRow[c] = 0;
+			}
+		}
+	}
+
+	private static long getTableLength(Image image, int blockSize) {
+		long columns = (image.getWidth() + blockSize - 1) / blockSize;
+		long rows = (image.getHeight() + blockSize - 1) / blockSize;
+		return (columns + 1) * (rows + 1);
+	}
+}
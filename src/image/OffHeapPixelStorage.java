@@ -0,0 +1,109 @@
+package image;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Pixels kept outside the Java heap, either in direct buffers or mapped from a raw file, so an
+ * image's size is bounded by native memory rather than by the heap, and the garbage collector
+ * neither scans nor copies them.
+ * <p>
+ * A single buffer holds at most 2^31 - 1 bytes, so the pixels are split into chunks of whole
+ * rows, and images may have more than 2^31 - 1 pixels. After {@link #close()} the buffers are
+ * dropped and reading throws {@link IllegalStateException}; the native memory is returned once
+ * the buffers are collected, since Java 17 has no supported way to free it earlier. Direct
+ * buffers are limited to the maximum heap size unless -XX:MaxDirectMemorySize is set; mapped
+ * files are not limited.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class OffHeapPixelStorage implements PixelStorage {
+
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+	private static final String CLOSED_MSG = "Image storage is closed";
+	private static final String RAW_FILE_TOO_SHORT_MSG = "Raw image file is shorter than %d bytes";
+
+	private final int width;
+	private final int rowsPerChunk;
+	private IntBuffer[] chunks;
+
+	private OffHeapPixelStorage(int width, int height) {
+		this.width = width;
+		this.rowsPerChunk = Math.max(1, Math.min(height, MAX_CHUNK_BYTES / Integer.BYTES / width));
+		this.chunks = new IntBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+	}
+
+	/**
+	 * Allocates zeroed native storage for the given dimensions.
+	 */
+	static OffHeapPixelStorage allocate(int width, int height) {
+		OffHeapPixelStorage storage = new OffHeapPixelStorage(width, height);
+		for (int i = 0; i < storage.chunks.length; i++) {
+			int rows = Math.min(storage.rowsPerChunk, height - i * storage.rowsPerChunk);
+			storage.chunks[i] = ByteBuffer.allocateDirect(rows * width * Integer.BYTES)
+					.order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+		return storage;
+	}
+
+	/**
+	 * Maps a raw file read-only: width * height big-endian 32-bit pixels, 0xAARRGGBB, row-major
+	 * and without a header. Pixels are paged in by the operating system as they are read.
+	 * @throws IOException If the file cannot be opened or is too short.
+	 */
+	static OffHeapPixelStorage map(Path file, int width, int height) throws IOException {
+		OffHeapPixelStorage storage = new OffHeapPixelStorage(width, height);
+		long rowBytes = (long) width * Integer.BYTES;
+		// the mappings stay valid after the channel is closed
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < rowBytes * height) {
+				throw new IOException(String.format(RAW_FILE_TOO_SHORT_MSG, rowBytes * height));
+			}
+			for (int i = 0; i < storage.chunks.length; i++) {
+				int rows = Math.min(storage.rowsPerChunk, height - i * storage.rowsPerChunk);
+				storage.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+						i * storage.rowsPerChunk * rowBytes, rows * rowBytes)
+						.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+			}
+		}
+		return storage;
+	}
+
+	@Override
+	public int get(long index) {
+		int row = (int) (index / width);
+		return getChunk(row).get((row % rowsPerChunk) * width + (int) (index % width));
+	}
+
+	@Override
+	public void getRow(int row, int start, int length, int[] dest) {
+		getChunk(row).get((row % rowsPerChunk) * width + start, dest, 0, length);
+	}
+
+	/**
+	 * Copies one row of pixels into allocated storage.
+	 * @param row The row to write.
+	 * @param src The pixels, at least as many as a row.
+	 */
+	void setRow(int row, int[] src) {
+		getChunk(row).put((row % rowsPerChunk) * width, src, 0, width);
+	}
+
+	@Override
+	public void close() {
+		chunks = null;
+	}
+
+	private IntBuffer getChunk(int row) {
+		IntBuffer[] chunks = this.chunks;
+		if (chunks == null) {
+			throw new IllegalStateException(CLOSED_MSG);
+		}
+		return chunks[row / rowsPerChunk];
+	}
+}
@@ -0,0 +1,31 @@
+package image;
+
+/**
+ * Row-major storage of an image's packed pixels. Kernels read whole rows, so implementations can
+ * keep the pixels anywhere, including outside the Java heap, without a per-pixel call.
+ * Only the low 24 bits of a pixel, 0xRRGGBB, are meaningful.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+interface PixelStorage extends AutoCloseable {
+
+	/**
+	 * @return The packed pixel at the given row-major index.
+	 */
+	int get(long index);
+
+	/**
+	 * Copies a span of one row of pixels into the given array.
+	 * @param row The row to copy from.
+	 * @param start The first column to copy.
+	 * @param length The number of pixels to copy.
+	 * @param dest The destination array, at least length long.
+	 */
+	void getRow(int row, int start, int length, int[] dest);
+
+	/**
+	 * Releases the storage. The pixels must not be read afterwards.
+	 */
+	@Override
+	void close();
+}
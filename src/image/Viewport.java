@@ -0,0 +1,93 @@
+package image;
+
+/**
+ * A rectangle of whole pixels of an image, the region a processor splits into tiles.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public final class Viewport {
+
+	private final int x;
+	private final int y;
+	private final int width;
+	private final int height;
+
+	/**
+	 * @param x The first pixel column.
+	 * @param y The first pixel row.
+	 * @param width The number of pixel columns.
+	 * @param height The number of pixel rows.
+	 */
+	public Viewport(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * @return The viewport covering the whole image.
+	 */
+	public static Viewport of(Image image) {
+		return new Viewport(0, 0, image.getWidth(), image.getHeight());
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Whether the viewport is non-empty and lies inside the image.
+	 */
+	public boolean isWithin(Image image) {
+		return x >= 0 && y >= 0 && width >= 1 && height >= 1 &&
+				(long) x + width <= image.getWidth() && (long) y + height <= image.getHeight();
+	}
+
+	/**
+	 * @return Whether the viewport covers the whole image.
+	 */
+	public boolean isWhole(Image image) {
+		return x == 0 && y == 0 && width == image.getWidth() && height == image.getHeight();
+	}
+
+	/**
+	 * Moves the viewport by the given number of pixels, stopping at the edges of the image.
+	 * @return The moved viewport, of the same dimensions.
+	 */
+	public Viewport translate(int dx, int dy, Image image) {
+		long newX = Math.max(0, Math.min((long) x + dx, image.getWidth() - width));
+		long newY = Math.max(0, Math.min((long) y + dy, image.getHeight() - height));
+		return new Viewport((int) newX, (int) newY, width, height);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Viewport viewport)) {
+			return false;
+		}
+		return x == viewport.x && y == viewport.y && width == viewport.width && height == viewport.height;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((x * 31 + y) * 31 + width) * 31 + height;
+	}
+
+	@Override
+	public String toString() {
+		return x + "," + y + "," + width + "x" + height;
+	}
+}
@@ -14,8 +14,10 @@ import java.awt.image.BufferedImage;
 public class CharConverter {
     private static final double X_OFFSET_FACTOR = 0.2;
     private static final double Y_OFFSET_FACTOR = 0.75;
-    private static final String FONT_NAME = "Courier New";
+    static final String FONT_NAME = "Courier New";
     public static final int DEFAULT_PIXEL_RESOLUTION = 16;
+    /** Number of longs in a glyph bit mask, see {@link #convertToBitMask(char)}. */
+    public static final int MASK_WORDS = DEFAULT_PIXEL_RESOLUTION * DEFAULT_PIXEL_RESOLUTION / Long.SIZE;
 
     /**
      * Renders a given character, according to how it looks in the font specified in the
@@ -23,16 +25,43 @@ public class CharConverter {
      * whose dimension in pixels is specified.
      */
     public static boolean[][] convertToBoolArray(char c) {
-        BufferedImage img = getBufferedImage(c, FONT_NAME, DEFAULT_PIXEL_RESOLUTION);
-        boolean[][] matrix = new boolean[DEFAULT_PIXEL_RESOLUTION][DEFAULT_PIXEL_RESOLUTION];
-        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
-            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+        return convertToBoolArray(c, DEFAULT_PIXEL_RESOLUTION);
+    }
+
+    /**
+     * Renders a given character like {@link #convertToBoolArray(char)}, at the given dimension
+     * in pixels, e.g. to draw it at another size with the same font settings.
+     */
+    public static boolean[][] convertToBoolArray(char c, int pixelResolution) {
+        BufferedImage img = getBufferedImage(c, FONT_NAME, pixelResolution);
+        boolean[][] matrix = new boolean[pixelResolution][pixelResolution];
+        for(int y = 0 ; y < pixelResolution ; y++) {
+            for(int x = 0 ; x < pixelResolution ; x++) {
                 matrix[y][x] = img.getRGB(x, y) == 0; //is the color white
             }
         }
         return matrix;
     }
 
+    /**
+     * Renders a given character like {@link #convertToBoolArray(char)}, packed into
+     * {@link #MASK_WORDS} longs. Pixel (y, x) is bit (y * DEFAULT_PIXEL_RESOLUTION + x) % 64 of
+     * word (y * DEFAULT_PIXEL_RESOLUTION + x) / 64, and is set when the pixel is white.
+     */
+    public static long[] convertToBitMask(char c) {
+        boolean[][] matrix = convertToBoolArray(c);
+        long[] mask = new long[MASK_WORDS];
+        for(int y = 0 ; y < DEFAULT_PIXEL_RESOLUTION ; y++) {
+            for(int x = 0 ; x < DEFAULT_PIXEL_RESOLUTION ; x++) {
+                if (matrix[y][x]) {
+                    int bit = y * DEFAULT_PIXEL_RESOLUTION + x;
+                    mask[bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+                }
+            }
+        }
+        return mask;
+    }
+
     private static BufferedImage getBufferedImage(char c, String fontName, int pixelsPerRow) {
         String charStr = Character.toString(c);
         Font font = new Font(fontName, Font.PLAIN, pixelsPerRow);
@@ -0,0 +1,150 @@
+package image_char_matching;
+
+import exceptions.EmptyCharSetException;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An immutable view of a {@link SubImgCharMatcher} at one point in time: its normalized
+ * brightnesses as a sorted primitive array with the matching chars, its rounding method and its
+ * glyph index. A render takes one snapshot and matches every tile against it, so lookups take no
+ * locks, and chars added or removed meanwhile only affect later renders.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public final class CharMatcherSnapshot {
+
+	private static final int MINIMUM_LEGAL_CHAR_COUNT = 2;
+	private static final char MAX_ASCII_CHAR = 0x7F;
+	private static final String CHARSET_TOO_SMALL_MSG = "Did not execute. Charset is too small.";
+
+	private final double[] brightnesses;
+	private final char[] chars;
+	private final RoundMethod roundMethod;
+	private final GlyphIndex glyphIndex;
+	private final boolean ascii;
+
+	/**
+	 * Flattens the brightness tree, keeping the first char of every brightness.
+	 * @param charTree The chars grouped by normalized brightness.
+	 * @param glyphMasks The glyph mask of every char in the tree.
+	 * @param roundMethod The rounding method of brightness lookups.
+	 */
+	CharMatcherSnapshot(TreeMap<Double, TreeSet<Character>> charTree, Map<Character, long[]> glyphMasks,
+						RoundMethod roundMethod) {
+		brightnesses = new double[charTree.size()];
+		chars = new char[charTree.size()];
+		int i = 0;
+		for (Map.Entry<Double, TreeSet<Character>> entry : charTree.entrySet()) {
+			brightnesses[i] = entry.getKey();
+			chars[i] = entry.getValue().first();
+			i++;
+		}
+		boolean allAscii = true;
+		for (char c : glyphMasks.keySet()) {
+			allAscii &= c <= MAX_ASCII_CHAR;
+		}
+		ascii = allAscii;
+		glyphIndex = new GlyphIndex(glyphMasks);
+		this.roundMethod = roundMethod;
+	}
+
+	private CharMatcherSnapshot(CharMatcherSnapshot other, RoundMethod roundMethod) {
+		brightnesses = other.brightnesses;
+		chars = other.chars;
+		glyphIndex = other.glyphIndex;
+		ascii = other.ascii;
+		this.roundMethod = roundMethod;
+	}
+
+	/**
+	 * @return A snapshot of the same chars with another rounding method, sharing this one's arrays.
+	 */
+	CharMatcherSnapshot withRoundMethod(RoundMethod roundMethod) {
+		return roundMethod == this.roundMethod ? this : new CharMatcherSnapshot(this, roundMethod);
+	}
+
+	/**
+	 * Returns the char whose normalized brightness is closest to the given one, according to the
+	 * rounding method.
+	 * @param brightness A brightness value, clamped to the range between 0 and 1.
+	 * @return The matched char.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	public char getCharByImageBrightness(double brightness) throws EmptyCharSetException {
+		return chars[matchIndex(brightness)];
+	}
+
+	/**
+	 * Returns the normalized brightness of the char {@link #getCharByImageBrightness} returns for
+	 * the given brightness, e.g. to measure the quantization error of the match.
+	 * @param brightness A brightness value, clamped to the range between 0 and 1.
+	 * @return The normalized brightness of the matched char.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	public double getMatchedBrightness(double brightness) throws EmptyCharSetException {
+		return brightnesses[matchIndex(brightness)];
+	}
+
+	/**
+	 * Returns the char whose glyph differs from a binarized tile in the fewest pixels.
+	 * @param tileMasks An array holding the tile mask, laid out as in
+	 *                  {@link CharConverter#convertToBitMask(char)}.
+	 * @param offset The index of the tile mask's first word.
+	 * @return The closest char.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	public char getCharByTileMask(long[] tileMasks, int offset) throws EmptyCharSetException {
+		if (glyphIndex.size() < MINIMUM_LEGAL_CHAR_COUNT) {
+			throw new EmptyCharSetException(CHARSET_TOO_SMALL_MSG);
+		}
+		return glyphIndex.closest(tileMasks, offset);
+	}
+
+	/**
+	 * @return true if no char in the set is above 0x7F, so a render can store one byte per char.
+	 */
+	public boolean isAscii() {
+		return ascii;
+	}
+
+	/**
+	 * Finds the index of the brightness closest to the given one, according to the rounding method.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	private int matchIndex(double brightness) throws EmptyCharSetException {
+
+		if (brightnesses.length < MINIMUM_LEGAL_CHAR_COUNT) {
+			throw new EmptyCharSetException(CHARSET_TOO_SMALL_MSG);
+		}
+
+		// Handle edge cases where brightness is for some reason not normalized
+		if (brightness > 1) {
+			brightness = 1;
+		} else if (brightness < 0) {
+			brightness = 0;
+		}
+
+		int found = Arrays.binarySearch(brightnesses, brightness);
+		if (found >= 0) {
+			return found;
+		}
+		int higher = -found - 1;
+		int lower = higher - 1;
+		if (lower < 0) {
+			return higher;
+		} else if (higher == brightnesses.length) {
+			return lower;
+		}
+
+		return switch (roundMethod) {
+			case ROUND_UP -> higher;
+			case ROUND_DOWN -> lower;
+			default -> (Math.abs(brightness - brightnesses[lower])
+					<= Math.abs(brightness - brightnesses[higher])) ? lower : higher;
+		};
+	}
+}
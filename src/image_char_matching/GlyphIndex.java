@@ -0,0 +1,126 @@
+package image_char_matching;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * An immutable index of glyph bit masks, used to find the glyph whose shape is closest to a
+ * binarized tile. The distance between two masks is the number of differing pixels, computed
+ * with XOR and {@link Long#bitCount(long)} over {@link CharConverter#MASK_WORDS} words.
+ * <p>
+ * Glyphs are sorted by their number of white pixels, which acts as a brightness bucket:
+ * two masks whose white counts differ by d are at least d apart, so the search starts at the
+ * tile's own bucket and walks outwards only while a closer glyph is still possible.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+class GlyphIndex {
+
+	private static final int WORDS = CharConverter.MASK_WORDS;
+
+	private final char[] chars;
+	private final long[] masks;
+	private final int[] whiteCounts;
+
+	/**
+	 * Builds an index of the given glyphs.
+	 * @param glyphMasks The bit mask of each char, as returned by {@link CharConverter#convertToBitMask}.
+	 */
+	GlyphIndex(Map<Character, long[]> glyphMasks) {
+		Character[] sorted = glyphMasks.keySet().toArray(new Character[0]);
+		Arrays.sort(sorted, Comparator.comparingInt((Character c) -> whiteCount(glyphMasks.get(c), 0))
+				.thenComparing(Comparator.naturalOrder()));
+
+		chars = new char[sorted.length];
+		masks = new long[sorted.length * WORDS];
+		whiteCounts = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			chars[i] = sorted[i];
+			System.arraycopy(glyphMasks.get(sorted[i]), 0, masks, i * WORDS, WORDS);
+			whiteCounts[i] = whiteCount(masks, i * WORDS);
+		}
+	}
+
+	/**
+	 * @return The number of glyphs in the index.
+	 */
+	int size() {
+		return chars.length;
+	}
+
+	/**
+	 * Returns the char whose glyph differs from the tile mask in the fewest pixels.
+	 * Ties are broken in favour of the glyph with the closer brightness.
+	 * @param tileMasks An array holding the tile mask.
+	 * @param offset The index of the tile mask's first word.
+	 * @return The closest char.
+	 */
+	char closest(long[] tileMasks, int offset) {
+		int tileWhite = whiteCount(tileMasks, offset);
+		int above = lowerBound(tileWhite);
+		int below = above - 1;
+
+		int best = -1;
+		int bestDistance = Integer.MAX_VALUE;
+		while (below >= 0 || above < chars.length) {
+			int belowGap = below >= 0 ? tileWhite - whiteCounts[below] : Integer.MAX_VALUE;
+			int aboveGap = above < chars.length ? whiteCounts[above] - tileWhite : Integer.MAX_VALUE;
+			int candidate;
+			if (aboveGap <= belowGap) {
+				if (aboveGap >= bestDistance) {
+					break;
+				}
+				candidate = above++;
+			} else {
+				if (belowGap >= bestDistance) {
+					break;
+				}
+				candidate = below--;
+			}
+
+			int distance = distance(tileMasks, offset, candidate * WORDS);
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = candidate;
+			}
+		}
+		return chars[best];
+	}
+
+	/**
+	 * @return The number of pixels in which the tile mask and the glyph at glyphOffset differ.
+	 */
+	private int distance(long[] tileMasks, int tileOffset, int glyphOffset) {
+		int distance = 0;
+		for (int w = 0; w < WORDS; w++) {
+			distance += Long.bitCount(tileMasks[tileOffset + w] ^ masks[glyphOffset + w]);
+		}
+		return distance;
+	}
+
+	/**
+	 * @return The index of the first glyph with at least the given number of white pixels.
+	 */
+	private int lowerBound(int whiteCount) {
+		int low = 0;
+		int high = whiteCounts.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (whiteCounts[mid] < whiteCount) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int whiteCount(long[] mask, int offset) {
+		int count = 0;
+		for (int w = 0; w < WORDS; w++) {
+			count += Long.bitCount(mask[offset + w]);
+		}
+		return count;
+	}
+}
@@ -0,0 +1,140 @@
+package image_char_matching;
+
+import java.awt.Font;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Precomputed glyph bit masks of the printable ASCII chars, as returned by
+ * {@link CharConverter#convertToBitMask(char)}, read from a binary resource next to this class
+ * so the default charset is measured without starting AWT.
+ * <p>
+ * The resource is written by {@link GlyphTableGenerator} on a machine with the font installed
+ * and committed with the sources; it is only ever read at runtime. It holds an int magic number,
+ * the font name, the family AWT resolved that name to, the pixel resolution, the first and last
+ * char, and then {@link CharConverter#MASK_WORDS} longs per char, all big-endian. A resource
+ * whose resolved family is not the font itself holds the glyphs of a substitute font, and is
+ * ignored like a missing one, as is a resource for another resolution or charset.
+ * <p>
+ * Without a usable resource, every glyph of the table is rendered with AWT at startup and kept
+ * in memory only. Machines without the font installed still read the font's glyphs from the
+ * resource, rather than those of whatever font AWT would substitute.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public final class GlyphTable {
+
+	static final String RESOURCE_NAME = "glyph_masks.bin";
+	static final char FIRST_CHAR = ' ';
+	static final char LAST_CHAR = '~';
+	// "GLY2", the layout holding the resolved font family
+	private static final int MAGIC = 0x474C5932;
+
+	// Whether the masks were read from the resource rather than rendered at startup
+	private static boolean precomputed;
+
+	// The masks by char
+	private static final long[][] MASKS = load();
+
+	private GlyphTable() {
+	}
+
+	/**
+	 * @return A copy of the char's precomputed glyph mask, or null if the table lacks it.
+	 */
+	public static long[] getMask(char c) {
+		if (c < FIRST_CHAR || c > LAST_CHAR) {
+			return null;
+		}
+		return MASKS[c - FIRST_CHAR].clone();
+	}
+
+	/**
+	 * @return Whether the table was read from its resource, rather than rendered with AWT at
+	 * startup because no usable resource was found.
+	 */
+	public static boolean isPrecomputed() {
+		return precomputed;
+	}
+
+	/**
+	 * @return The family AWT renders the font's glyphs with, the font's own name only when it is
+	 * installed.
+	 */
+	static String getResolvedFamily() {
+		return new Font(CharConverter.FONT_NAME, Font.PLAIN, CharConverter.DEFAULT_PIXEL_RESOLUTION).getFamily();
+	}
+
+	/**
+	 * Renders every char of the table with AWT and writes the table, recording the font family
+	 * the glyphs were rendered with.
+	 * @param out The stream to write to, left open.
+	 * @throws IOException If writing fails.
+	 */
+	static void write(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeUTF(CharConverter.FONT_NAME);
+		data.writeUTF(getResolvedFamily());
+		data.writeInt(CharConverter.DEFAULT_PIXEL_RESOLUTION);
+		data.writeChar(FIRST_CHAR);
+		data.writeChar(LAST_CHAR);
+		for (long[] mask : render()) {
+			for (long word : mask) {
+				data.writeLong(word);
+			}
+		}
+		data.flush();
+	}
+
+	private static long[][] load() {
+		long[][] masks = read();
+		if (masks != null) {
+			precomputed = true;
+			return masks;
+		}
+		return render();
+	}
+
+	/**
+	 * @return The masks of the resource, or null if it is missing or unusable.
+	 */
+	private static long[][] read() {
+		try (InputStream in = GlyphTable.class.getResourceAsStream(RESOURCE_NAME)) {
+			if (in == null) {
+				return null;
+			}
+			DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+			if (data.readInt() != MAGIC ||
+					!data.readUTF().equals(CharConverter.FONT_NAME) ||
+					!data.readUTF().equals(CharConverter.FONT_NAME) ||
+					data.readInt() != CharConverter.DEFAULT_PIXEL_RESOLUTION ||
+					data.readChar() != FIRST_CHAR ||
+					data.readChar() != LAST_CHAR) {
+				return null;
+			}
+			long[][] masks = new long[LAST_CHAR - FIRST_CHAR + 1][CharConverter.MASK_WORDS];
+			for (long[] mask : masks) {
+				for (int word = 0; word < mask.length; word++) {
+					mask[word] = data.readLong();
+				}
+			}
+			return masks;
+		} catch (IOException e) {
+			// a truncated table is as good as none
+			return null;
+		}
+	}
+
+	private static long[][] render() {
+		long[][] masks = new long[LAST_CHAR - FIRST_CHAR + 1][];
+		for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+			masks[c - FIRST_CHAR] = CharConverter.convertToBitMask(c);
+		}
+		return masks;
+	}
+}
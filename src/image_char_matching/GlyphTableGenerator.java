@@ -0,0 +1,51 @@
+package image_char_matching;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Writes the {@link GlyphTable} resource into the sources, to be run on a machine with the font
+ * installed and the result committed whenever the font or the glyph rendering of
+ * {@link CharConverter} changes. Builds copy the resource next to the classes like any other
+ * file in the sources, as the IDE's does; the table is never written at runtime.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public class GlyphTableGenerator {
+
+	private static final String USAGE_MSG =
+			"Usage: GlyphTableGenerator <directory of the image_char_matching sources>";
+	private static final String MISSING_FONT_MSG =
+			"Font %s is not installed, so the table would hold the glyphs of %s instead.";
+	private static final String WRITTEN_MSG = "Wrote %s.";
+	private static final String WRITE_FAILED_MSG = "Could not write %s.";
+
+	/**
+	 * @param args The directory to write the table to, normally src/image_char_matching.
+	 */
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.out.println(USAGE_MSG);
+			return;
+		}
+		// AWT silently substitutes a missing font, which must not end up in the table
+		String family = GlyphTable.getResolvedFamily();
+		if (!family.equals(CharConverter.FONT_NAME)) {
+			System.out.println(String.format(MISSING_FONT_MSG, CharConverter.FONT_NAME, family));
+			return;
+		}
+
+		Path table = Paths.get(args[0], GlyphTable.RESOURCE_NAME);
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(table))) {
+			GlyphTable.write(out);
+		} catch (IOException e) {
+			System.out.println(String.format(WRITE_FAILED_MSG, table));
+			return;
+		}
+		System.out.println(String.format(WRITTEN_MSG, table));
+	}
+}
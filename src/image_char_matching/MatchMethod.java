@@ -0,0 +1,17 @@
+package image_char_matching;
+
+
+/**
+ * This enum determines how a tile of the image is matched to a character.
+ * BRIGHTNESS matches the tile's mean brightness to the character's brightness,
+ * STRUCTURE matches the tile's binarized shape to the character's glyph.
+ *
+ * @author Eitan Kayesar and Ariel Monzon
+ */
+public enum MatchMethod {
+	/** Matches by mean brightness only. */
+	BRIGHTNESS,
+
+	/** Matches by the fewest differing pixels between the binarized tile and the glyph. */
+	STRUCTURE
+}
@@ -9,17 +9,27 @@ import java.util.*;
  * This class is used to match characters to their brightness in a sub-image.
  * It is responsible for storing characters and their corresponding brightness values,
  * managing duplicates, and normalizing brightness values.
+ * Changes to the set are serialized, and every change publishes an immutable
+ * {@link CharMatcherSnapshot} that concurrent renders match against without locking.
+ * Glyphs of printable ASCII chars come from the precomputed {@link GlyphTable} when it is
+ * available, so only other chars are rendered with AWT.
  *
  * @author Eitan Kayesar and Ariel Monzon
  */
 public class SubImgCharMatcher {
 
-	private static final int MINIMUM_LEGAL_CHAR_COUNT = 2;
 	private static final RoundMethod DEFAULT_ROUND_METHOD = RoundMethod.ROUND_ABS;
 
 	// A Tree of all Characters
 	private TreeMap<Double, TreeSet<Character>> charTree;
 
+	// The glyph bit mask of every char in the set, so glyphs are rendered only once
+	private final Map<Character, long[]> glyphMasks = new HashMap<>();
+
+	// Immutable copy of the set, republished after every change. Changes are synchronized with
+	// each other, while readers only read this field.
+	private volatile CharMatcherSnapshot snapshot;
+
 	private double maxBrightness;
 	private double minBrightness;
 	private RoundMethod roundMethod = DEFAULT_ROUND_METHOD;
@@ -32,6 +42,7 @@ public class SubImgCharMatcher {
 	public SubImgCharMatcher(char[] chars) {
 
 		this.charTree = new TreeMap<>();
+		this.snapshot = new CharMatcherSnapshot(charTree, glyphMasks, roundMethod);
 
 		for (char c : chars) {
 			addChar(c);
@@ -48,37 +59,55 @@ public class SubImgCharMatcher {
 	public char getCharByImageBrightness (double brightness)
 			throws EmptyCharSetException {
 
-		if (charTree.size() < MINIMUM_LEGAL_CHAR_COUNT) {
-			throw new EmptyCharSetException("Did not execute. Charset is too small.");
-		}
-
-		Double closest = null;
+		return snapshot.getCharByImageBrightness(brightness);
+	}
 
-		Double lowerBrightness = charTree.floorKey(brightness);
-		Double higherBrightness = charTree.ceilingKey(brightness);
+	/**
+	 * Returns the normalized brightness of the character {@link #getCharByImageBrightness}
+	 * returns for the given brightness, e.g. to measure the quantization error of the match.
+	 * @param brightness A brightness value, clamped to the range between 0 and 1.
+	 * @return The normalized brightness of the matched character.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	public double getMatchedBrightness(double brightness) throws EmptyCharSetException {
 
-		// Handle edge cases where brightness is for some reason not normalized
-		if (brightness > 1) {
-			brightness = 1;
-		} else if (brightness < 0) {
-			brightness = 0;
-		}
+		return snapshot.getMatchedBrightness(brightness);
+	}
 
-		switch (roundMethod) {
-			case ROUND_UP -> closest = higherBrightness;
-			case ROUND_DOWN -> closest = lowerBrightness;
-			default -> closest = (Math.abs(brightness - lowerBrightness)
-					<= Math.abs(brightness - higherBrightness)) ? lowerBrightness : higherBrightness;
-		}
+	/**
+	 * Returns the character whose glyph is structurally closest to a binarized tile, i.e. differs
+	 * from it in the fewest pixels. The rounding method does not apply to structural matching.
+	 * @param tileMasks An array holding the tile mask, laid out as in
+	 *                  {@link CharConverter#convertToBitMask(char)}.
+	 * @param offset The index of the tile mask's first word.
+	 * @return The closest character.
+	 * @throws EmptyCharSetException If the character set is too small.
+	 */
+	public char getCharByTileMask(long[] tileMasks, int offset) throws EmptyCharSetException {
+		return snapshot.getCharByTileMask(tileMasks, offset);
+	}
 
-		return charTree.get(closest).first();
+	/**
+	 * Returns the current state of the set as an immutable snapshot. Renders should take one
+	 * snapshot and match every tile against it, so changes to the set made meanwhile can neither
+	 * block nor corrupt them.
+	 * @return The snapshot published by the last change to the set.
+	 */
+	public CharMatcherSnapshot getSnapshot() {
+		return snapshot;
 	}
 
 	/**
 	 * Adds a character to the the character set.
 	 * @param c The character to be added.
 	 */
-	public void addChar (char c) {
+	public synchronized void addChar (char c) {
+
+		if (!glyphMasks.containsKey(c)) {
+			// only chars missing from the precomputed table start AWT
+			long[] mask = GlyphTable.getMask(c);
+			glyphMasks.put(c, mask != null ? mask : CharConverter.convertToBitMask(c));
+		}
 
 		double nonNormalizedBrightness = getNonNormalizedBrightness(c);
 
@@ -102,13 +131,14 @@ public class SubImgCharMatcher {
 		}
 
 		charTree.get(normalizedBrightness).add(c);
+		publishSnapshot();
 	}
 
 	/**
 	 * Removes a character from the character set.
 	 * @param c The character to be removed.
 	 */
-	public void removeChar(char c) {
+	public synchronized void removeChar(char c) {
 
 		// find the char
 		Double brightness = null;
@@ -127,26 +157,36 @@ public class SubImgCharMatcher {
 
 		// properly delete the char
 		charTree.get(brightness).remove(c);
+		glyphMasks.remove(c);
 		if (charTree.get(brightness).isEmpty()) {
 			boolean wasLowest = brightness.equals(charTree.firstKey());
 			boolean wasHighest = brightness.equals(charTree.lastKey());
 
 			charTree.remove(brightness);
-			if (charTree.isEmpty()) { return; }
-			if (wasHighest) {
+			if (wasHighest && !charTree.isEmpty()) {
 				maxBrightness = getNonNormalizedBrightness(charTree.lastEntry().getValue().first());
 				normalizeTree();
-			} else if (wasLowest) {
+			} else if (wasLowest && !charTree.isEmpty()) {
 				minBrightness = getNonNormalizedBrightness(charTree.firstEntry().getValue().first());
 				normalizeTree();
 			}
 		}
+		publishSnapshot();
+	}
+
+	/**
+	 * Checks whether every character in the set is in the ASCII range, so a render
+	 * can store one byte per character.
+	 * @return true if no character in the set is above 0x7F.
+	 */
+	public boolean isAscii() {
+		return snapshot.isAscii();
 	}
 
 	/**
 	 * Prints all characters in the character set.
 	 */
-	public void printChars() {
+	public synchronized void printChars() {
 		TreeSet<Character> charSet = new TreeSet<>();
 
 		for (TreeSet<Character> set : charTree.values()) {
@@ -195,26 +235,17 @@ public class SubImgCharMatcher {
 /**
 	 * Calculates the non-normalized brightness of a character.
 	 * The brightness is calculated as the ratio of white pixels to total pixels.
-	 * @param c The character for which to calculate the brightness.
+	 * @param c The character for which to calculate the brightness. Must be in the set.
 	 * @return The non-normalized brightness value.
 	 */
 	private double getNonNormalizedBrightness(char c) {
 
-		boolean[][] boolArray = CharConverter.convertToBoolArray(c);
-		double blackPixels = 0;
 		double whitePixels = 0;
-
-		for (int i = 0; i < boolArray.length; i++) {
-			for (int j = 0; j < boolArray[0].length; j++) {
-				if (boolArray[i][j]){
-					whitePixels++;
-				} else {
-					blackPixels++;
-				}
-			}
+		for (long word : glyphMasks.get(c)) {
+			whitePixels += Long.bitCount(word);
 		}
 
-		return whitePixels / (whitePixels + blackPixels);
+		return whitePixels / (CharConverter.MASK_WORDS * Long.SIZE);
 
 	}
 
@@ -222,7 +253,15 @@ public class SubImgCharMatcher {
 	 * Sets the method used for rounding brightness values.
 	 * @param newMethod The new rounding method to be used.
 	 */
-	public void setRoundMethod(RoundMethod newMethod) {
+	public synchronized void setRoundMethod(RoundMethod newMethod) {
 		this.roundMethod = newMethod;
+		snapshot = snapshot.withRoundMethod(newMethod);
+	}
+
+	/**
+	 * Publishes a snapshot of the set after a change. Must be called holding the lock.
+	 */
+	private void publishSnapshot() {
+		snapshot = new CharMatcherSnapshot(charTree, glyphMasks, roundMethod);
 	}
 }
@@ -0,0 +1,64 @@
+package tests;
+
+import image_char_matching.CharConverter;
+import image_char_matching.GlyphTable;
+
+import java.awt.Font;
+import java.util.Arrays;
+
+public class GlyphTableTest {
+
+	private static final String FONT_NAME = "Courier New";
+	private static final String RESOURCE_NAME = "glyph_masks.bin";
+	private static final char FIRST_CHAR = ' ';
+	private static final char LAST_CHAR = '~';
+
+	public static void main(String[] args) {
+
+		boolean hasResource = GlyphTable.class.getResource(RESOURCE_NAME) != null;
+		// AWT substitutes another family for a font that is not installed
+		boolean fontInstalled = new Font(FONT_NAME, Font.PLAIN, CharConverter.DEFAULT_PIXEL_RESOLUTION)
+				.getFamily().equals(FONT_NAME);
+
+		System.out.println("Reading the glyph table from its resource...");
+		if (GlyphTable.isPrecomputed()) {
+			System.out.println("Passed!");
+		} else if (hasResource) {
+			System.out.println("FAILED: the resource is unusable, run GlyphTableGenerator again.");
+		} else if (fontInstalled) {
+			System.out.println("FAILED: no resource on the classpath, run GlyphTableGenerator and commit it.");
+		} else {
+			System.out.println("Skipped: no resource, and " + FONT_NAME + " is not installed to generate one.");
+		}
+
+		// masks rendered at startup would only be compared with themselves
+		System.out.println("Comparing the table with glyphs rendered by AWT now...");
+		if (!GlyphTable.isPrecomputed()) {
+			System.out.println("Skipped: the table was rendered by AWT in this run.");
+		} else if (!fontInstalled) {
+			System.out.println("Skipped: " + FONT_NAME + " is not installed to render the glyphs again.");
+		} else {
+			int mismatches = 0;
+			for (char c = FIRST_CHAR; c <= LAST_CHAR; c++) {
+				if (!Arrays.equals(GlyphTable.getMask(c), CharConverter.convertToBitMask(c))) {
+					System.out.println("Mask of char '" + c + "' differs");
+					mismatches++;
+				}
+			}
+			if (mismatches == 0) {
+				System.out.println("Passed!");
+			} else {
+				System.out.println("FAILED: " + mismatches + " masks differ, run GlyphTableGenerator again.");
+			}
+		}
+
+		System.out.println("Asking for chars outside the table...");
+		if (GlyphTable.getMask((char) (FIRST_CHAR - 1)) == null && GlyphTable.getMask((char) (LAST_CHAR + 1)) == null) {
+			System.out.println("Passed!");
+		} else {
+			System.out.println("FAILED: a char outside the table has a mask.");
+		}
+
+		System.out.println("Finished all tests!!");
+	}
+}
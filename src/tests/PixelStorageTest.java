@@ -0,0 +1,89 @@
+package tests;
+
+import image.Image;
+import image.ImageProcessor;
+import image.LuminanceMode;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class PixelStorageTest {
+
+	// more pixels than a single decoding strip, with a last strip of fewer rows
+	private static final int WIDTH = 2100;
+	private static final int HEIGHT = 2100;
+	private static final int[] RESOLUTIONS = {1, 7, 64, 333, WIDTH};
+
+	public static void main(String[] args) throws IOException {
+
+		System.out.println("Writing a patterned image as PNG and as raw pixels...");
+		BufferedImage pattern = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				pattern.setRGB(x, y, (x * 7 ^ y * 13) & 0xFF | (x & 0xFF) << 8 | (y & 0xFF) << 16);
+			}
+		}
+		File png = File.createTempFile("pixel-storage", ".png");
+		File raw = File.createTempFile("pixel-storage", ".raw");
+		png.deleteOnExit();
+		raw.deleteOnExit();
+		ImageIO.write(pattern, "png", png);
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(raw.toPath())))) {
+			for (int y = 0; y < HEIGHT; y++) {
+				for (int x = 0; x < WIDTH; x++) {
+					out.writeInt(pattern.getRGB(x, y));
+				}
+			}
+		}
+
+		Image heap = new Image(png.getPath());
+		Image offHeap = Image.readOffHeap(png.getPath());
+		Image mapped = Image.mapRaw(raw.getPath(), WIDTH, HEIGHT);
+
+		System.out.println("Comparing pixels...");
+		boolean samePixels = true;
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int rgb = heap.getRGB(y, x);
+				samePixels &= rgb == offHeap.getRGB(y, x) && rgb == mapped.getRGB(y, x);
+			}
+		}
+		System.out.println(samePixels ? "Passed!" : "FAILED: pixels differ between storages.");
+
+		for (LuminanceMode luminanceMode : LuminanceMode.values()) {
+			for (int resolution : RESOLUTIONS) {
+				System.out.println("Comparing grids at resolution " + resolution + " in " + luminanceMode + "...");
+				float[] expected = getGrid(heap, resolution, luminanceMode);
+				if (Arrays.equals(expected, getGrid(offHeap, resolution, luminanceMode)) &&
+						Arrays.equals(expected, getGrid(mapped, resolution, luminanceMode))) {
+					System.out.println("Passed!");
+				} else {
+					System.out.println("FAILED: grids differ between storages.");
+				}
+			}
+		}
+
+		System.out.println("Closing the off-heap images...");
+		offHeap.close();
+		mapped.close();
+		try {
+			offHeap.getRGB(0, 0);
+			System.out.println("FAILED: a closed image was read.");
+		} catch (IllegalStateException e) {
+			System.out.println("Succesfuly caught exception!");
+		}
+
+		System.out.println("Finished all tests!!");
+	}
+
+	private static float[] getGrid(Image image, int resolution, LuminanceMode luminanceMode) {
+		return new ImageProcessor(image, resolution, luminanceMode).getMeanGrayGradeGrid().getValues();
+	}
+}
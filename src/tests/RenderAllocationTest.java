@@ -0,0 +1,66 @@
+package tests;
+
+import ascii_art.AsciiArtAlgorithm;
+import ascii_art.DitherMethod;
+import ascii_art.RenderContext;
+import ascii_output.AsciiGrid;
+import image.Image;
+import image_char_matching.SubImgCharMatcher;
+
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+public class RenderAllocationTest {
+
+	private static final int IMAGE_SIZE = 256;
+	private static final int RESOLUTION = 64;
+	private static final int WARMUP_RENDERS = 2000;
+	private static final int MEASURED_RENDERS = 1000;
+
+	public static void main(String[] args) {
+
+		System.out.println("Creating a gradient image...");
+		Color[][] pixels = new Color[IMAGE_SIZE][IMAGE_SIZE];
+		for (int i = 0; i < IMAGE_SIZE; i++) {
+			for (int j = 0; j < IMAGE_SIZE; j++) {
+				pixels[i][j] = new Color(i, j, (i + j) / 2);
+			}
+		}
+		Image image = new Image(pixels, IMAGE_SIZE, IMAGE_SIZE);
+		SubImgCharMatcher charMatcher = new SubImgCharMatcher(" .:-=+*#%@".toCharArray());
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		for (DitherMethod ditherMethod : new DitherMethod[]{DitherMethod.NONE, DitherMethod.FLOYD_STEINBERG}) {
+			AsciiArtAlgorithm algorithm = new AsciiArtAlgorithm(image, RESOLUTION, charMatcher);
+			algorithm.setDitherMethod(ditherMethod);
+			RenderContext context = new RenderContext();
+
+			System.out.println("Warming up " + ditherMethod + " renders...");
+			AsciiGrid first = algorithm.render(context);
+			for (int i = 0; i < WARMUP_RENDERS; i++) {
+				algorithm.render(context);
+			}
+
+			long before = threads.getThreadAllocatedBytes(threadId);
+			AsciiGrid last = null;
+			for (int i = 0; i < MEASURED_RENDERS; i++) {
+				last = algorithm.render(context);
+			}
+			long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+			System.out.println("Same grid reused: " + (first == last));
+			System.out.println("Bytes allocated per render: " + (double) allocated / MEASURED_RENDERS);
+			// a few bytes of slack for the measurement itself, far below a single grid
+			if (first == last && allocated < MEASURED_RENDERS) {
+				System.out.println("Passed!");
+			} else {
+				System.out.println("FAILED: steady-state renders allocate.");
+			}
+		}
+
+		System.out.println("Finished all tests!!");
+	}
+}